@@ -0,0 +1,73 @@
+/**
+ * Checks that the optimizations of the double kernel do not change the result.
+ * The reference of every view is built by the plain scalar kernel with all
+ * shortcuts off, like the kernel before the optimizations. Every combination of
+ * the lane kernel, the cardioid check, the periodicity check (with
+ * periodicityTolerance 0, which only stops exact repetitions) and rectangle
+ * subdivision must give the same iteration counts pixel for pixel.
+ *
+ * The check is not part of the program. It is compiled against the classes of
+ * src and run with java KernelCheck, which prints the combinations that differ
+ * and exits with 1 if there is one.
+ */
+public class KernelCheck {
+
+    // minRe, minIm, maxRe, maxIm and nMax of the views; they cover the main
+    // cardioid, the period-2 bulb and their borders
+    private static final double[][] VIEWS = { //
+            { -2.0D, -1.5D, 2.0D, 1.5D, 2000 }, //
+            { -1.7692D, -0.0014D, -1.7664D, 0.0014D, 5000 }, //
+            { -0.7530D, 0.0990D, -0.7450D, 0.1050D, 3000 }, //
+            { -1.3D, -0.2D, -0.9D, 0.2D, 20000 }, //
+            { 0.2D, -0.1D, 0.3D, 0.1D, 10000 }, //
+            { -0.8D, 0.0D, -0.7D, 0.2D, 10000 } };
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    public static void main(String[] args) {
+        int failed = 0;
+        for (double[] view : VIEWS) {
+            int[] reference = build(view, 0);
+            // bit 0: lane kernel, bit 1: cardioid check, bit 2: periodicity check,
+            // bit 3: rectangle subdivision
+            for (int options = 1; options < 16; options++)
+                failed += compare(view, options, reference, build(view, options));
+        }
+        if (failed > 0) {
+            System.out.println("> " + failed + " comparisons failed");
+            System.exit(1);
+        }
+        System.out.println("> all views are identical");
+    }
+
+    private static int[] build(double[] view, int options) {
+        Mandelbrot mand = new Mandelbrot(WIDTH, HEIGHT, view[0], view[1], view[2], view[3], (int) view[4], 0x000000,
+                new int[] { 0xFFFFFF });
+        mand.useLaneKernel = (options & 1) != 0;
+        mand.useCardioidCheck = (options & 2) != 0;
+        mand.usePeriodicityCheck = (options & 4) != 0;
+        mand.periodicityTolerance = 0.0D;
+        mand.useRectangleSubdivision = (options & 8) != 0;
+        mand.useProgressiveBuild = false;
+        return mand.compute(Runnable::run).join();
+    }
+
+    /**
+     * Returns 1 and prints the first differing pixel if the counts differ.
+     */
+    private static int compare(double[] view, int options, int[] expected, int[] actual) {
+        String name = "[" + view[0] + ", " + view[1] + ", " + view[2] + ", " + view[3] + "], nMax " + (int) view[4]
+                + ((options & 1) != 0 ? ", lane kernel" : ", scalar kernel")
+                + ((options & 2) != 0 ? ", cardioid check" : "") + ((options & 4) != 0 ? ", periodicity check" : "")
+                + ((options & 8) != 0 ? ", rectangle subdivision" : "");
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                System.out.println("   - " + name + ": pixel " + i + " has " + actual[i] + " instead of "
+                        + expected[i] + " iterations");
+                return 1;
+            }
+        }
+        System.out.println("   - " + name + ": identical");
+        return 0;
+    }
+}
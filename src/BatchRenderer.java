@@ -0,0 +1,202 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.yaml.snakeyaml.error.YAMLException;
+
+import throwables.MandelbrotConfigException;
+
+/**
+ * Renders many configurations in one run of the command line tool (main -m),
+ * so that the start of the JVM and the warm-up of the JIT are paid only once.
+ * All views share the pool of the Mandelbrot class and the tile store. While a
+ * view is calculated, the previous one is encoded on a separate thread. The
+ * configuration files are not modified.
+ *
+ * The views are either all YAML files of a directory, written as PNG images
+ * with the same names, or the lines of a manifest: a configuration file and an
+ * output path, optionally followed by width and height, separated by
+ * whitespace. Empty lines and lines that start with # are skipped, and relative
+ * paths are resolved against the directory of the manifest.
+ */
+public class BatchRenderer {
+
+    /**
+     * A view of the batch and its results
+     */
+    private static final class Job {
+        final Path config;
+        final Path output;
+        final int width;
+        final int height;
+        long computeMillis;
+        long encodeMillis;
+        long totalMillis;
+        String error; // null if the view has been written
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+
+        Job(Path config, Path output, int width, int height) {
+            this.config = config;
+            this.output = output;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final List<Job> jobs;
+    private final TileCache tileCache; // null if there is no tile store
+    private final boolean useSubdivision;
+
+    /**
+     * @param source          manifest or directory of YAML files
+     * @param width           width of the images that the manifest gives no size
+     * @param height          height of the images that the manifest gives no size
+     * @param outputDirectory directory of the images of the YAML files of a
+     *                        directory (null for the directory itself)
+     */
+    public BatchRenderer(Path source, int width, int height, Path outputDirectory, TileCache tileCache,
+            boolean useSubdivision) throws IOException {
+        this.jobs = Files.isDirectory(source)
+                ? readDirectory(source, width, height, outputDirectory != null ? outputDirectory : source)
+                : readManifest(source, width, height);
+        this.tileCache = tileCache;
+        this.useSubdivision = useSubdivision;
+    }
+
+    private static List<Job> readDirectory(Path directory, int width, int height, Path outputDirectory)
+            throws IOException {
+        List<Path> configs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{yml,yaml}")) {
+            for (Path config : stream)
+                configs.add(config);
+        }
+        configs.sort(null);
+        List<Job> jobs = new ArrayList<>();
+        for (Path config : configs) {
+            String name = config.getFileName().toString();
+            name = name.substring(0, name.lastIndexOf('.')) + ".png";
+            jobs.add(new Job(config, outputDirectory.resolve(name), width, height));
+        }
+        return jobs;
+    }
+
+    private static List<Job> readManifest(Path manifest, int width, int height) throws IOException {
+        Path directory = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2 && fields.length != 4)
+                throw new IOException("Line " + lineNumber + " of the manifest must contain a configuration file "
+                        + "and an output path, optionally followed by width and height");
+            try {
+                jobs.add(new Job(directory.resolve(fields[0]), directory.resolve(fields[1]),
+                        fields.length == 4 ? Integer.parseInt(fields[2]) : width,
+                        fields.length == 4 ? Integer.parseInt(fields[3]) : height));
+            } catch (NumberFormatException e) {
+                throw new IOException("The size in line " + lineNumber + " of the manifest is invalid");
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Renders all views one after another and prints the times of every view
+     * and the throughput of the batch. It returns the number of views that could
+     * not be rendered.
+     */
+    public int run() {
+        ExecutorService encoder = Executors.newSingleThreadExecutor();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < this.jobs.size(); i++) {
+                Job job = this.jobs.get(i);
+                // only the previous view may still be encoded while this one is
+                // calculated, so that the memory of the queued bands stays bounded
+                if (i >= 2)
+                    this.await(this.jobs.get(i - 2));
+                System.out.println("[" + (i + 1) + "/" + this.jobs.size() + "] " + job.config + " -> " + job.output);
+                this.render(job, encoder);
+            }
+            for (Job job : this.jobs)
+                this.await(job);
+        } finally {
+            encoder.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1E9;
+
+        int failed = 0;
+        long pixels = 0;
+        System.out.println();
+        for (Job job : this.jobs) {
+            if (job.error != null) {
+                failed++;
+                System.out.println("   - " + job.config.getFileName() + ": failed (" + job.error + ")");
+                continue;
+            }
+            pixels += (long) job.width * job.height;
+            System.out.println("   - " + job.config.getFileName() + ": " + job.width + "x" + job.height + ", compute "
+                    + job.computeMillis / 1000.0D + "s, encode " + job.encodeMillis / 1000.0D + "s, done after "
+                    + job.totalMillis / 1000.0D + "s");
+        }
+        int written = this.jobs.size() - failed;
+        System.out.println("> batch: " + written + " of " + this.jobs.size() + " views written in "
+                + Math.round(seconds * 100.0D) / 100.0D + "s");
+        System.out.println("   - views per second: " + Math.round(written / seconds * 100.0D) / 100.0D);
+        System.out.println("   - megapixels per second: " + Math.round(pixels / 1E6 / seconds * 100.0D) / 100.0D);
+        return failed;
+    }
+
+    private void render(Job job, ExecutorService encoder) {
+        long start = System.nanoTime();
+        Mandelbrot mand;
+        try {
+            mand = Mandelbrot.fromYAMLFile(job.config.toString(), job.width, job.height);
+        } catch (FileNotFoundException | YAMLException | MandelbrotConfigException e) {
+            job.error = "the configuration file was not found or the YAML data was corrupt";
+            return;
+        } catch (IllegalArgumentException e) {
+            job.error = e.getMessage();
+            return;
+        } catch (RuntimeException | OutOfMemoryError e) {
+            job.error = e.toString();
+            return;
+        }
+        mand.useRectangleSubdivision = this.useSubdivision;
+        mand.tileCache = this.tileCache;
+        try {
+            if (job.output.getParent() != null)
+                Files.createDirectories(job.output.getParent());
+            CompletableFuture<Void> written = mand.exportInBands(job.output.toString(), encoder);
+            job.computeMillis = (System.nanoTime() - start) / 1000000L;
+            job.written = written.whenComplete((v, e) -> {
+                job.totalMillis = (System.nanoTime() - start) / 1000000L;
+                job.encodeMillis = mand.getEncodeTime();
+            });
+        } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // a view that fails does not stop the batch
+            job.error = e.toString();
+        }
+    }
+
+    private void await(Job job) {
+        try {
+            job.written.join();
+        } catch (CompletionException e) {
+            job.error = (e.getCause() != null ? e.getCause() : e).toString();
+        }
+    }
+}
@@ -9,10 +9,13 @@ import java.awt.Toolkit;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSeparator;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.JFrame;
 import javax.swing.JTextArea;
 import javax.swing.SpringLayout;
@@ -34,6 +37,13 @@ public class ColoringDialog extends JDialog {
         JButton[] btnsColorGradient;
         JPanel[] pnlsColorGradient;
 
+        // Mapping of the iterations onto the color gradient, in the order of
+        // Mandelbrot.PaletteMode
+        static final String[] PALETTE_MODES = { "Linear (0 bis n_max)", "Zyklisch", "Logarithmisch", "Wurzel",
+                        "Histogramm" };
+        JComboBox<String> cbxPaletteMode;
+        JSpinner spnPaletteLength; // Iterations per repetition of the gradient (cyclic)
+
         Mandelbrot mandelbrot;
         Executable<Mandelbrot> onConfirm;
 
@@ -161,6 +171,23 @@ public class ColoringDialog extends JDialog {
 
                 main.add(Box.createRigidArea(new Dimension(0, 6)));
 
+                JPanel pnlPaletteMode = new JPanel();
+                pnlPaletteMode.setLayout(new FlowLayout(FlowLayout.LEFT, 3, 0));
+                pnlPaletteMode.add(new JLabel("Farbzuordnung:"));
+                this.cbxPaletteMode = new JComboBox<>(PALETTE_MODES);
+                this.cbxPaletteMode.setSelectedIndex(mandelbrot.getPaletteMode().ordinal());
+                this.cbxPaletteMode.addActionListener((e) -> onPaletteModeChange());
+                pnlPaletteMode.add(this.cbxPaletteMode);
+                pnlPaletteMode.add(new JLabel("  Länge:"));
+                this.spnPaletteLength = new JSpinner(
+                                new SpinnerNumberModel(mandelbrot.getPaletteLength(), 1, Integer.MAX_VALUE, 16));
+                ((JSpinner.DefaultEditor) this.spnPaletteLength.getEditor()).getTextField().setColumns(6);
+                pnlPaletteMode.add(this.spnPaletteLength);
+                this.onPaletteModeChange();
+                main.add(pnlPaletteMode);
+
+                main.add(Box.createRigidArea(new Dimension(0, 6)));
+
                 this.add(main, BorderLayout.CENTER);
                 this.add(createNavBar(), BorderLayout.PAGE_END);
 
@@ -216,14 +243,19 @@ public class ColoringDialog extends JDialog {
                         if (pnlsColorGradient[a].isOpaque())
                                 newGradient[b++] = pnlsColorGradient[a].getBackground().getRGB();
 
-                Mandelbrot newMandelbrot = new Mandelbrot(mandelbrot.getFullWidth(), mandelbrot.getFullHeight(),
-                                mandelbrot.getMinRe(), mandelbrot.getMinIm(), mandelbrot.getMaxRe(),
-                                mandelbrot.getMaxIm(), mandelbrot.getNMax(), pnlInnerColor.getBackground().getRGB(),
-                                newGradient);
+                Mandelbrot newMandelbrot = mandelbrot.changeColoring(pnlInnerColor.getBackground().getRGB(),
+                                newGradient, Mandelbrot.PaletteMode.values()[cbxPaletteMode.getSelectedIndex()],
+                                (int) spnPaletteLength.getValue());
                 onConfirm.run(newMandelbrot);
                 dispose();
         }
 
+        private void onPaletteModeChange() {
+                // only the cyclic palette has a length of its own
+                this.spnPaletteLength.setEnabled(
+                                this.cbxPaletteMode.getSelectedIndex() == Mandelbrot.PaletteMode.CYCLIC.ordinal());
+        }
+
         private void onReset() {
                 // Inner color
                 this.pnlInnerColor.setOpaque(true);
@@ -238,6 +270,10 @@ public class ColoringDialog extends JDialog {
                 while (i < 5) {
                         this.pnlsColorGradient[i++].setOpaque(false);
                 }
+
+                // Palette mode
+                this.cbxPaletteMode.setSelectedIndex(this.mandelbrot.getPaletteMode().ordinal());
+                this.spnPaletteLength.setValue(this.mandelbrot.getPaletteLength());
                 this.validate();
                 this.repaint();
 
@@ -0,0 +1,100 @@
+import java.math.BigDecimal;
+
+/**
+ * A number represented by the unevaluated sum of two doubles (hi + lo) with
+ * |lo| <= ulp(hi) / 2, which gives about 106 bits (32 decimal digits) of
+ * precision. The operations use error-free transformations (TwoSum and a
+ * fused multiply-add for TwoProduct).
+ */
+public final class DoubleDouble {
+
+    public static final DoubleDouble ZERO = new DoubleDouble(0.0D, 0.0D);
+
+    public final double hi;
+    public final double lo;
+
+    public DoubleDouble(double hi, double lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    public DoubleDouble(double value) {
+        this(value, 0.0D);
+    }
+
+    public static DoubleDouble valueOf(BigDecimal value) {
+        double hi = value.doubleValue();
+        double lo = value.subtract(new BigDecimal(hi)).doubleValue();
+        return fastTwoSum(hi, lo);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return new BigDecimal(this.hi).add(new BigDecimal(this.lo));
+    }
+
+    public double doubleValue() {
+        return this.hi + this.lo;
+    }
+
+    public DoubleDouble add(DoubleDouble other) {
+        // TwoSum of the high and the low parts
+        double s = this.hi + other.hi;
+        double v = s - this.hi;
+        double e = (this.hi - (s - v)) + (other.hi - v);
+        double t = this.lo + other.lo;
+        double w = t - this.lo;
+        double f = (this.lo - (t - w)) + (other.lo - w);
+        e += t;
+        double hi = s + e;
+        e = e - (hi - s);
+        e += f;
+        return fastTwoSum(hi, e);
+    }
+
+    public DoubleDouble add(double other) {
+        double s = this.hi + other;
+        double v = s - this.hi;
+        double e = (this.hi - (s - v)) + (other - v);
+        e += this.lo;
+        return fastTwoSum(s, e);
+    }
+
+    public DoubleDouble negate() {
+        return new DoubleDouble(-this.hi, -this.lo);
+    }
+
+    public DoubleDouble subtract(DoubleDouble other) {
+        return this.add(other.negate());
+    }
+
+    public DoubleDouble multiply(DoubleDouble other) {
+        double p = this.hi * other.hi;
+        double e = Math.fma(this.hi, other.hi, -p);
+        e += this.hi * other.lo + this.lo * other.hi;
+        return fastTwoSum(p, e);
+    }
+
+    public DoubleDouble square() {
+        double p = this.hi * this.hi;
+        double e = Math.fma(this.hi, this.hi, -p);
+        e += 2.0D * this.hi * this.lo;
+        return fastTwoSum(p, e);
+    }
+
+    /**
+     * Multiplies by 2 (exact)
+     */
+    public DoubleDouble twice() {
+        return new DoubleDouble(2.0D * this.hi, 2.0D * this.lo);
+    }
+
+    private static DoubleDouble fastTwoSum(double a, double b) {
+        double s = a + b;
+        return new DoubleDouble(s, b - (s - a));
+    }
+
+    @Override
+    public String toString() {
+        return this.toBigDecimal().toString();
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An image encoder that receives the image row by row from top to bottom, so
+ * that the whole image never has to be in memory.
+ */
+public interface ImageRowWriter extends Closeable {
+
+    /**
+     * Writes the next rows of the image.
+     * 
+     * @param rgb    pixels as 0xRRGGBB, row after row
+     * @param offset index of the first pixel in rgb
+     * @param rows   number of rows
+     */
+    void writeRows(int[] rgb, int offset, int rows) throws IOException;
+}
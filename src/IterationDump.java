@@ -0,0 +1,223 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The raw iteration counts of an area (a .mbi file), so that an expensive build
+ * can be colored again with other colors without iterating it again.
+ *
+ * The header holds the image size, the size and position of the area and nMax.
+ * It is followed by the counts of the area row by row. Every count is stored as
+ * the difference to the previous one, which is small in most parts of an image,
+ * zigzag encoded and written as a varint (7 bits per byte).
+ */
+public class IterationDump {
+    private static final int MAGIC = 0x4D424954; // "MBIT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 76; // magic, version, sizes, nMax and sides of the area
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    final int fullWidth;
+    final int fullHeight;
+    final int areaWidth;
+    final int areaHeight;
+    final int nMax;
+    final double minRe;
+    final double minIm;
+    final double maxRe;
+    final double maxIm;
+    final double rangeRe;
+    final double rangeIm;
+    final BigDecimal centerRe;
+    final BigDecimal centerIm;
+
+    IterationDump(int fullWidth, int fullHeight, int areaWidth, int areaHeight, int nMax, double minRe, double minIm,
+            double maxRe, double maxIm, double rangeRe, double rangeIm, BigDecimal centerRe, BigDecimal centerIm) {
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.areaWidth = areaWidth;
+        this.areaHeight = areaHeight;
+        this.nMax = nMax;
+        this.minRe = minRe;
+        this.minIm = minIm;
+        this.maxRe = maxRe;
+        this.maxIm = maxIm;
+        this.rangeRe = rangeRe;
+        this.rangeIm = rangeIm;
+        this.centerRe = centerRe;
+        this.centerIm = centerIm;
+    }
+
+    /**
+     * Writes the header to the channel of a new file. The counts are written with
+     * the returned writer.
+     */
+    Writer create(FileChannel channel) {
+        return new Writer(channel);
+    }
+
+    /**
+     * Opens a file and reads its header. The counts are read with the returned
+     * reader.
+     */
+    static Reader open(Path path) throws IOException {
+        return new Reader(path);
+    }
+
+    /**
+     * Writes the counts of the area row by row.
+     */
+    class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int previous = 0;
+        private long rowsWritten = 0;
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+            byte[] re = centerRe.toString().getBytes(StandardCharsets.US_ASCII);
+            byte[] im = centerIm.toString().getBytes(StandardCharsets.US_ASCII);
+            this.buffer.putInt(MAGIC).putInt(VERSION);
+            this.buffer.putInt(fullWidth).putInt(fullHeight).putInt(areaWidth).putInt(areaHeight).putInt(nMax);
+            this.buffer.putDouble(minRe).putDouble(minIm).putDouble(maxRe).putDouble(maxIm);
+            this.buffer.putDouble(rangeRe).putDouble(rangeIm);
+            this.buffer.putInt(re.length).put(re).putInt(im.length).put(im);
+        }
+
+        void writeRows(int[] counts, int offset, int rows) throws IOException {
+            if (this.rowsWritten + rows > areaHeight)
+                throw new IOException("The area has only " + areaHeight + " rows");
+            int end = offset + rows * areaWidth;
+            for (int i = offset; i < end; i++) {
+                if (this.buffer.remaining() < 5)
+                    this.flush();
+                int delta = counts[i] - this.previous;
+                int v = (delta << 1) ^ (delta >> 31);
+                while ((v & ~0x7F) != 0) {
+                    this.buffer.put((byte) (v & 0x7F | 0x80));
+                    v >>>= 7;
+                }
+                this.buffer.put((byte) v);
+                this.previous = counts[i];
+            }
+            this.rowsWritten += rows;
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+            this.buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (this.rowsWritten != areaHeight)
+                    throw new IOException("Only " + this.rowsWritten + " of " + areaHeight + " rows have been written");
+                this.flush();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the counts of the area row by row.
+     */
+    static class Reader implements Closeable {
+        final IterationDump dump; // Header of the file
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean isAtEnd = false;
+        private int previous = 0;
+        private long rowsRead = 0;
+
+        private Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                this.buffer.flip();
+                this.fill();
+                if (this.buffer.remaining() < HEADER_SIZE + 8 || this.buffer.getInt() != MAGIC)
+                    throw new IOException(path + " is no iteration dump");
+                if (this.buffer.getInt() != VERSION)
+                    throw new IOException("The version of " + path + " is not supported");
+                int fullWidth = this.buffer.getInt();
+                int fullHeight = this.buffer.getInt();
+                int areaWidth = this.buffer.getInt();
+                int areaHeight = this.buffer.getInt();
+                int nMax = this.buffer.getInt();
+                if (areaWidth <= 0 || areaHeight <= 0 || areaWidth > fullWidth || areaHeight > fullHeight || nMax < 0)
+                    throw new IOException("The header is corrupt");
+                double minRe = this.buffer.getDouble();
+                double minIm = this.buffer.getDouble();
+                double maxRe = this.buffer.getDouble();
+                double maxIm = this.buffer.getDouble();
+                double rangeRe = this.buffer.getDouble();
+                double rangeIm = this.buffer.getDouble();
+                BigDecimal centerRe = new BigDecimal(this.readString());
+                BigDecimal centerIm = new BigDecimal(this.readString());
+                this.dump = new IterationDump(fullWidth, fullHeight, areaWidth, areaHeight, nMax, minRe, minIm, maxRe,
+                        maxIm, rangeRe, rangeIm, centerRe, centerIm);
+            } catch (IOException | RuntimeException e) {
+                this.channel.close();
+                throw e instanceof IOException ? (IOException) e : new IOException("The header is corrupt", e);
+            }
+        }
+
+        private String readString() throws IOException {
+            int length = this.buffer.getInt();
+            if (length < 0 || length > this.buffer.remaining())
+                throw new IOException("The header is corrupt");
+            byte[] b = new byte[length];
+            this.buffer.get(b);
+            return new String(b, StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * Moves the unread bytes to the start of the buffer and reads as many new
+         * bytes as fit into it.
+         */
+        private void fill() throws IOException {
+            this.buffer.compact();
+            while (this.buffer.hasRemaining() && !this.isAtEnd)
+                this.isAtEnd = this.channel.read(this.buffer) < 0;
+            this.buffer.flip();
+        }
+
+        void readRows(int[] counts, int offset, int rows) throws IOException {
+            if (this.rowsRead + rows > this.dump.areaHeight)
+                throw new IOException("The area has only " + this.dump.areaHeight + " rows");
+            int end = offset + rows * this.dump.areaWidth;
+            for (int i = offset; i < end; i++) {
+                if (this.buffer.remaining() < 5 && !this.isAtEnd)
+                    this.fill();
+                int v = 0;
+                for (int shift = 0;; shift += 7) {
+                    if (!this.buffer.hasRemaining() || shift > 28)
+                        throw new IOException("The iteration dump is incomplete or corrupt");
+                    byte b = this.buffer.get();
+                    v |= (b & 0x7F) << shift;
+                    if (b >= 0)
+                        break;
+                }
+                int n = this.previous + ((v >>> 1) ^ -(v & 1));
+                if (n < 0 || n > this.dump.nMax)
+                    throw new IOException("The iteration dump is corrupt");
+                counts[i] = n;
+                this.previous = n;
+            }
+            this.rowsRead += rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -23,8 +23,11 @@ import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.MathContext;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -98,8 +101,14 @@ public class Main implements MouseListener, KeyListener {
     Mandelbrot mandelbrotDisplayed;
     BufferedImage areaImage;
 
-    double cursorRe = 0;
-    double cursorIm = 0;
+    // Iteration counts of the areas built so far, so that going back to an area is
+    // fast. It may use up to an eighth of the heap and keeps the tiles on disk if
+    // a tile store is configured (see TileStore.DIRECTORY_PROPERTY).
+    final TileStore tileStore = TileStore.openFromSystemProperty();
+    final TileCache tileCache = new TileCache(Runtime.getRuntime().maxMemory() / 8, tileStore);
+
+    BigDecimal cursorRe = BigDecimal.ZERO;
+    BigDecimal cursorIm = BigDecimal.ZERO;
 
     String pathToOpen = null;
 
@@ -144,6 +153,13 @@ public class Main implements MouseListener, KeyListener {
 
         frame.addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
+                if (tileStore != null) {
+                    try {
+                        tileStore.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
                 System.exit(0);
             }
         });
@@ -394,6 +410,9 @@ public class Main implements MouseListener, KeyListener {
         double ar = (double) canvas.getWidth() / canvas.getHeight();
         this.mandelbrot = new Mandelbrot(canvas.getWidth(), canvas.getHeight(), -1.5 * ar, -1.5, 1.5 * ar, 1.5, 100,
                 0x000000, new int[] { 0xff003c, 0xFFFFFF });
+        this.mandelbrot.keepOrbitState = true;
+        this.mandelbrot.useProgressiveBuild = true;
+        this.mandelbrot.tileCache = this.tileCache;
         this.mandelbrotDisplayed = new Mandelbrot(canvas.getWidth(), canvas.getHeight(), -1.5 * ar, -1.5, 1.5 * ar, 1.5,
                 100, 0x000000, new int[] { 0xff003c, 0xFFFFFF });
 
@@ -403,7 +422,7 @@ public class Main implements MouseListener, KeyListener {
         lblStatus.setText("   Robert Schlosshan | Mandelbrot Set Explorer v1.0   ("
                 + Runtime.getRuntime().availableProcessors() + " Prozessoren)");
 
-        putCursor(0, 0);
+        putCursor(BigDecimal.ZERO, BigDecimal.ZERO);
         if (pathToOpen != null)
             importYAML(pathToOpen);
 
@@ -466,6 +485,19 @@ public class Main implements MouseListener, KeyListener {
         if (!this.mandelbrot.equals(m)) {
             this.mandelbrot.abort();
             this.mandelbrot = m;
+            // lets an increase of nMax continue the current sequences
+            m.keepOrbitState = true;
+            m.useProgressiveBuild = true;
+            m.tileCache = this.tileCache;
+            // If only the colors have changed, the displayed iterations are recolored
+            // instead of built again
+            if (m.reuseIterationData(this.mandelbrotDisplayed)) {
+                this.mandelbrotDisplayed = m;
+                this.areaImage = m.getAreaImage();
+            } else {
+                // pixels that are still visible after moving the area are copied
+                m.seedFrom(this.mandelbrotDisplayed);
+            }
         }
     }
 
@@ -496,28 +528,36 @@ public class Main implements MouseListener, KeyListener {
         }
 
         if (!this.mandelbrot.isBuilding() && !this.mandelbrot.isBuilt()) {
-            try {
-                this.mandelbrot.build((Integer percentage) -> {
-                    // On building progress
-                    this.progressBar.setValue((int) percentage);
-                    this.buildPercentage = (int) percentage;
-                    this.lblProgress.setText("Zoom: " + zoomFactor + "  " + buildPercentage + "% berechnet   ");
-                }, () -> {
-                    if (!this.mandelbrot.isBuilt())
-                        return;
-                    // When building is done
+            this.mandelbrot.build((Integer percentage) -> {
+                // On building progress
+                this.progressBar.setValue((int) percentage);
+                this.buildPercentage = (int) percentage;
+                this.lblProgress.setText("Zoom: " + zoomFactor + "  " + buildPercentage + "% berechnet   ");
+                // show the coarse image of a progressive build until it is finished
+                BufferedImage preview = this.mandelbrot.getPreviewImage();
+                if (preview != null && preview != this.areaImage) {
                     this.mandelbrotDisplayed = this.mandelbrot;
-                    this.areaImage = this.mandelbrotDisplayed.getAreaImage();
-
-                    // update zoom factor
-                    this.updateZoomFactorInfo();
-
+                    this.areaImage = preview;
                     this.canvas.repaint();
-                });
-            } catch (OutOfMemoryError e) {
-                new MessageDialog(this.frame, "Fehler ⚠", "Der zugewiesene Speicher reicht nicht aus.");
+                }
+            }, () -> {
+                if (!this.mandelbrot.isBuilt())
+                    return;
+                // When building is done
+                this.mandelbrotDisplayed = this.mandelbrot;
+                this.areaImage = this.mandelbrotDisplayed.getAreaImage();
+
+                // update zoom factor
+                this.updateZoomFactorInfo();
+
+                this.canvas.repaint();
+            }, (error) -> {
+                // the build has failed, e.g. because the memory is not sufficient
+                new MessageDialog(this.frame, "Fehler ⚠", error instanceof OutOfMemoryError
+                        ? "Der zugewiesene Speicher reicht nicht aus."
+                        : "Die Berechnung ist fehlgeschlagen.");
                 this.mandelbrot = new Mandelbrot(mandelbrotDisplayed);
-            }
+            });
         }
     }
 
@@ -533,11 +573,8 @@ public class Main implements MouseListener, KeyListener {
         WritableRaster raster = this.areaImage.copyData(null);
         BufferedImage imageWithCursor = new BufferedImage(cm, raster, false, null);
         // Map the complex number c to pixel coordinates
-        int curPixX = (int) (((this.cursorRe - mandelbrotDisplayed.getMinRe()) * mandelbrotDisplayed.getAreaWidth())
-                / Math.abs(mandelbrotDisplayed.getMaxRe() - mandelbrotDisplayed.getMinRe()));
-        int curPixY = (int) (mandelbrotDisplayed.getAreaHeight()
-                - (((-this.cursorIm + mandelbrotDisplayed.getMinIm()) * mandelbrotDisplayed.getAreaHeight()
-                        / -Math.abs(mandelbrotDisplayed.getMaxIm() - mandelbrotDisplayed.getMinIm()))));
+        int curPixX = (int) mandelbrotDisplayed.getPixelX(this.cursorRe);
+        int curPixY = (int) mandelbrotDisplayed.getPixelY(this.cursorIm);
 
         // horizontal
         if (curPixY < this.areaImage.getHeight() && curPixY >= 0) {
@@ -622,12 +659,14 @@ public class Main implements MouseListener, KeyListener {
         }
 
         try {
-            this.setMandelbrot(new Mandelbrot(this.canvas.getWidth(), this.canvas.getHeight(), mandelbrot.getMinRe(),
-                    mandelbrot.getMinIm(), mandelbrot.getMaxRe(), mandelbrot.getMaxIm(), nMax,
-                    mandelbrot.getInnerColor(), mandelbrot.getColorGradient()));
+            Mandelbrot mandelbrot = this.mandelbrot.changeNMax(nMax);
+            // the linear palette has nMax + 1 colors, the other modes a fixed number
+            mandelbrot.preparePalette();
+            this.setMandelbrot(mandelbrot);
             this.canvas.repaint();
         } catch (OutOfMemoryError e) {
-            new MessageDialog(this.frame, "Achtung ⚠", "Die maximale Anzahl an Iterationen nMax ist zu groß! ");
+            new MessageDialog(this.frame, "Achtung ⚠",
+                    "Die maximale Anzahl an Iterationen nMax ist zu groß für eine lineare Farbzuordnung! ");
             this.spnMaxIteration.setValue(this.mandelbrotDisplayed.getNMax());
         }
 
@@ -660,16 +699,13 @@ public class Main implements MouseListener, KeyListener {
     }
 
     private void updateInfoAboutC() {
-        Mandelbrot mand = new Mandelbrot(1, 1, this.cursorRe, this.cursorIm - 0.1, this.cursorRe + 0.1, this.cursorIm,
-                this.mandelbrot.getNMax(), 0x000000, new int[] { 0xFFFFFF });
-        mand.build(() -> {
-            String txt = "c";
-            int[] data = mand.getAreaIterationArray();
-            int iterations = data[0];
-            txt += ((iterations == mand.getNMax() + 1) ? " ∈ " : " ∉ ") + "𝕄";
-            txt += "(" + (iterations) + "/" + mand.getNMax() + ")";
-            this.lblInfoAboutC.setText(txt);
-        });
+        int nMax = this.mandelbrot.getNMax();
+        Mandelbrot.PointInfo info = Mandelbrot.queryPoint(this.cursorRe.doubleValue(), this.cursorIm.doubleValue(),
+                nMax, false);
+        String txt = "c";
+        txt += (info.hasEscaped ? " ∉ " : " ∈ ") + "𝕄";
+        txt += "(" + info.iterations + "/" + nMax + ")";
+        this.lblInfoAboutC.setText(txt);
     }
 
     boolean blockOnCursorChange = false;
@@ -678,8 +714,8 @@ public class Main implements MouseListener, KeyListener {
 
         if (!blockOnCursorChange) {
             try {
-                this.cursorRe = Double.parseDouble(this.txfCursorRe.getText());
-                this.cursorIm = Double.parseDouble(this.txfCursorIm.getText());
+                this.cursorRe = new BigDecimal(this.txfCursorRe.getText().trim());
+                this.cursorIm = new BigDecimal(this.txfCursorIm.getText().trim());
             } catch (Exception e) {
                 new MessageDialog(this.frame, "Fehler ⚠",
                         "Die Cursor-Werte sind ungültig. Bitte überprüfen Sie ihre Eingaben! ");
@@ -690,7 +726,7 @@ public class Main implements MouseListener, KeyListener {
         this.updateInfoAboutC();
     }
 
-    private void putCursor(double re, double im) {
+    private void putCursor(BigDecimal re, BigDecimal im) {
         blockOnCursorChange = true;
         this.txfCursorRe.setText("" + re);
         this.txfCursorRe.setCaretPosition(0);
@@ -706,12 +742,8 @@ public class Main implements MouseListener, KeyListener {
                 || py >= this.canvas.getHeight() - this.mandelbrotDisplayed.getOffsetY()
                 || py < this.mandelbrotDisplayed.getOffsetY())
             return;
-        double zOriginRe = mandelbrotDisplayed.getMinRe();
-        double zOriginIm = mandelbrotDisplayed.getMaxIm();
-        double s = Math.abs(mandelbrotDisplayed.getMaxRe() - mandelbrotDisplayed.getMinRe())
-                / (double) mandelbrotDisplayed.getAreaWidth();
-        double cRe = zOriginRe + s * (px - this.mandelbrotDisplayed.getOffsetX());
-        double cIm = zOriginIm - s * (py - this.mandelbrotDisplayed.getOffsetY());
+        BigDecimal cRe = mandelbrotDisplayed.getRe(px - this.mandelbrotDisplayed.getOffsetX());
+        BigDecimal cIm = mandelbrotDisplayed.getIm(py - this.mandelbrotDisplayed.getOffsetY());
         this.putCursor(cRe, cIm);
     }
 
@@ -766,8 +798,7 @@ public class Main implements MouseListener, KeyListener {
             this.btnZoomOut.doClick();
         }
 
-        double s = Math.abs(mandelbrotDisplayed.getMaxRe() - mandelbrotDisplayed.getMinRe())
-                / (double) mandelbrotDisplayed.getAreaWidth();
+        double s = mandelbrotDisplayed.getRangeRe() / (double) mandelbrotDisplayed.getAreaWidth();
         double step = 20 * s;
 
         double up = e.getKeyCode() == KeyEvent.VK_UP ? step : 0;
@@ -775,7 +806,9 @@ public class Main implements MouseListener, KeyListener {
         double down = e.getKeyCode() == KeyEvent.VK_DOWN ? step : 0;
         double left = e.getKeyCode() == KeyEvent.VK_LEFT ? step : 0;
 
-        this.putCursor(this.cursorRe + right - left, this.cursorIm - down + up);
+        MathContext mc = mandelbrotDisplayed.getMathContext();
+        this.putCursor(this.cursorRe.add(new BigDecimal(right - left), mc),
+                this.cursorIm.add(new BigDecimal(up - down), mc));
     }
 
     @Override
@@ -3,31 +3,93 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.awt.*;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import javax.swing.SwingUtilities;
-import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.error.YAMLException;
 
 import throwables.MandelbrotConfigException;
 
-public class Mandelbrot {
+public class Mandelbrot implements RenderEngine {
     private static final String OUT_OF_MEMORY_ERR = "\n>> An OutOfMemoryError occured. Please reduce the image size and try again. <<";
     private static final int PROGRESS_BAR_WIDTH = 30;
     private static final double DIFF_EQUAL = 1E-15;
-
-    private final int NUMTHREADS = Runtime.getRuntime().availableProcessors();
+    // Smallest width or height of the area of the complex plane. The differences to
+    // the reference orbit are doubles and must not become subnormal.
+    private static final double MIN_RANGE = 1E-290;
+    // Areas whose pixel spacing relative to the magnitude of their numbers is below
+    // this limit can not be calculated with doubles and are calculated by
+    // perturbation
+    private static final double DOUBLE_PRECISION_LIMIT = 1E-12;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    // Number of pixels per band of an export in bands (see buildAndExport)
+    private static final int BAND_PIXELS = 1 << 20;
+    // Edge length of the tiles of a pyramid (see exportPyramid)
+    private static final int PYRAMID_TILE_SIZE = 256;
+
+    private static final int NUMTHREADS = Runtime.getRuntime().availableProcessors();
+    private static final ForkJoinPool POOL = new ForkJoinPool(NUMTHREADS);
+    // Color palettes shared by all Mandelbrot objects, least recently used first
+    // (see getColorPalette). Palettes are removed when they hold more than
+    // MAX_CACHED_PALETTE_COLORS colors together.
+    private static final LinkedHashMap<PaletteKey, int[]> PALETTES = new LinkedHashMap<>(16, 0.75F, true);
+    private static final int MAX_CACHED_PALETTE_COLORS = 1 << 24;
+    private static long cachedPaletteColors = 0; // Guarded by PALETTES
+    // Colors of the palettes of the modes LOG, SQRT and HISTOGRAM
+    private static final int PALETTE_STEPS = 1024;
+    // Longest side of the build whose counts are the histogram of exports that
+    // never hold the whole area (see createHistogramSample)
+    private static final int HISTOGRAM_PREVIEW_SIZE = 256;
+    // Maximum number of counts the histogram is taken from
+    private static final int HISTOGRAM_SAMPLES = 1 << 16;
+    // Runs the builds of the Swing windows (see build), their tiles are calculated
+    // by POOL
+    private static final ExecutorService BUILD_EXECUTOR = Executors.newCachedThreadPool((runnable) -> {
+        Thread thread = new Thread(runnable, "mandelbrot-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Milliseconds between two progress updates of build
+    private static final int PROGRESS_INTERVAL = 40;
     private final int ESCAPE_RADIUS = 2;
 
     public boolean useBackgroundPattern = true;
@@ -36,6 +98,58 @@ public class Mandelbrot {
     public int patternColor1 = 0xcfcfcf;
     public int patternColor2 = 0x999999;
 
+    // Edge length (in pixels) of the square tiles the area is split into when building
+    public int tileSize = 32;
+
+    // Skip the iteration for points that are known to lie in the main cardioid or
+    // the period-2 bulb
+    public boolean useCardioidCheck = true;
+
+    // Stop iterating as soon as the sequence returns to an earlier value
+    public boolean usePeriodicityCheck = true;
+    // Maximum distance (per component) between two values that are considered equal
+    // by the periodicity check. With 0 only exact repetitions count, which keeps the
+    // result identical to a full iteration.
+    public double periodicityTolerance = 0.0D;
+
+    // Build the area by recursively subdividing it into rectangles. Only the borders
+    // of the rectangles are calculated and rectangles with a uniform border are
+    // filled (Mariani-Silver algorithm).
+    public boolean useRectangleSubdivision = false;
+
+    // Iterate the pixels of a row in several interleaved lanes instead of one after
+    // another
+    public boolean useLaneKernel = true;
+
+    // Start all pixels of a deep zoom after the iterations that a polynomial in the
+    // offset to the center describes accurately enough (series approximation)
+    public boolean useSeriesApproximation = true;
+    // Maximum error of the series approximation relative to the distance of two
+    // pixels after the skipped iterations
+    public double seriesTolerance = 1E-3;
+
+    // Keep the last value of all sequences that have not diverged, so that a
+    // Mandelbrot object created by changeNMax with a larger nMax only continues
+    // these sequences instead of building everything again. Costs 20 bytes per
+    // pixel.
+    public boolean keepOrbitState = false;
+
+    // Calculate every 16th pixel of every 16th row first (1/16 resolution), then
+    // every 4th and then the rest, and provide a preview image after the first two
+    // passes (see getPreviewImage)
+    public boolean useProgressiveBuild = false;
+
+    // Cache of iteration counts that can be shared by several Mandelbrot objects
+    // (see TileCache). A build copies the pixels that are in the cache instead of
+    // calculating them and stores its own pixels in it. Only areas that are
+    // calculated with doubles are cached.
+    public TileCache tileCache = null;
+
+    // Compression level of PNG images from 0 (fastest) to 9 (smallest file)
+    public int pngCompressionLevel = 6;
+    // Quality of JPEG images from 0 (smallest file) to 1 (best quality)
+    public float jpegQuality = 0.75F;
+
     /**
      * Configuration
      */
@@ -43,20 +157,91 @@ public class Mandelbrot {
     private double minIm; // Bottom side of the area of the complex plane
     private double maxRe; // Right side of the area of the complex plane
     private double maxIm; // Top side of the area of the complex plane
+    private BigDecimal centerRe; // Real part of the center of the area (exact)
+    private BigDecimal centerIm; // Imaginary part of the center of the area (exact)
+    private double rangeRe; // Width of the area of the complex plane
+    private double rangeIm; // Height of the area of the complex plane
     private int nMax; // Maximum number of iterations
     private int innerColor; // Color for points inside the mandelbrot set
     private int[] colorGradient; // A color gradient for all points outside of the mandelbrot set
+    private PaletteMode paletteMode = PaletteMode.LINEAR; // How the counts are mapped onto the gradient
+    private int paletteLength = 256; // Iterations per repetition of the gradient (CYCLIC)
 
     /**
      * Data for the calculation
      */
     private int[] iterationData;
-    private int rowsCompleted = 0;
-    private int percentageCompleted = 0;
-    private int finishedThreads = 0;
+    private final LongAdder pixelsDone = new LongAdder(); // Pixels of the current build (see getProgress)
     private long startTime;
-    private SwingWorker<int[], Integer>[] workerThreads;
-    private int[] colorPallete;
+    private final LongAdder periodicPixels = new LongAdder(); // Pixels stopped by the periodicity check
+    private final LongAdder iteratedPixels = new LongAdder(); // Pixels for which iterate has been called
+    private final LongAdder encodeNanos = new LongAdder(); // Time spent on writing image files
+    private volatile CompletableFuture<Void> exportResult; // Result of the last export on an executor
+    private CompletableFuture<int[]> buildResult; // Result of the last call of compute
+    private volatile int[] colorPallete; // Created when it is first needed (see getColorMap)
+    private int[] histogramSample; // Counts of the histogram of exports of an iteration dump (HISTOGRAM)
+
+    /**
+     * Reference orbit for deep zooms: the sequence of the center of the area,
+     * calculated with BigDecimals and rounded to doubles
+     */
+    private double[] refRe;
+    private double[] refIm;
+    private int refLength;
+
+    /**
+     * The ways a pixel can be calculated
+     */
+    private enum Kernel {
+        // DOUBLE_DOUBLE is only compared by benchmarkKernels: an iteration costs
+        // several times as much as one of perturbation, which makes up for its
+        // reference orbit only on areas of a few pixels
+        DOUBLE, DOUBLE_DOUBLE, PERTURBATION
+    }
+
+    /**
+     * The ways the iteration counts are mapped onto the color gradient. Only
+     * LINEAR needs a palette of nMax + 1 colors, the others have a fixed number of
+     * colors, so nMax is not limited by the memory.
+     */
+    public enum PaletteMode {
+        LINEAR, // The gradient is stretched over the counts from 0 to nMax
+        CYCLIC, // The gradient repeats every paletteLength iterations
+        LOG, // The position on the gradient is log(1 + n) / log(1 + nMax)
+        SQRT, // The position on the gradient is sqrt(n / nMax)
+        HISTOGRAM // Every part of the gradient colors about the same number of pixels
+    }
+
+    private Kernel kernel = Kernel.DOUBLE; // Kernel of the current build
+    private DoubleDouble ddCenterRe; // Center of the area for the double-double kernel
+    private DoubleDouble ddCenterIm;
+
+    /**
+     * Orbit state (see keepOrbit) of the pixels whose iteration count in stateData
+     * is stateNMax. Arrays that are shared with other Mandelbrot objects are never
+     * modified.
+     */
+    private double[] orbitRe;
+    private double[] orbitIm;
+    private int[] orbitRef; // -1 if the sequence has to be started from the beginning
+    private int[] stateData;
+    private int stateNMax;
+    private Mandelbrot resumeSource; // Built Mandelbrot object whose orbit state is continued
+    private Mandelbrot resumingFrom; // resumeSource during the build
+    private Mandelbrot seed; // Built Mandelbrot object whose pixels may be copied (see seedFrom)
+    private boolean hasUnknownPixels; // Pixels of the current build that are not yet known are -1
+    private volatile BufferedImage previewImage; // Image of the last finished progressive pass
+    private volatile boolean hasNewPreview;
+
+    /**
+     * Series approximation: after seriesSkip iterations the offset of a pixel to the
+     * reference orbit is a*u + b*u^2 + c*u^3 with u = dc / seriesRadius. The
+     * coefficients are scaled by powers of seriesRadius to stay within the range
+     * of doubles.
+     */
+    private int seriesSkip;
+    private double seriesRadius;
+    private double seriesARe, seriesAIm, seriesBRe, seriesBIm, seriesCRe, seriesCIm;
 
     private int fullWidth; // Width of the image
     private int fullHeight; // Height of the image
@@ -72,16 +257,131 @@ public class Mandelbrot {
     private int offsetX;
     private int offsetY;
 
-    private boolean isBuilt = false;
-    private boolean isBuilding = false;
+    // Bands and tiles of an export (see buildAndExport and exportPyramid) are parts
+    // of a larger area. Their pixels lie on the grid of that area, which is
+    // gridWidth pixels wide, starting at its column firstColumn and row firstRow.
+    private int gridWidth;
+    private int firstColumn = 0;
+    private int firstRow = 0;
+    private volatile Mandelbrot currentBand; // Band that is calculated by buildAndExport
+
+    private volatile boolean isBuilt = false;
+    private volatile boolean isBuilding = false;
     private boolean hasBeenAborted = false;
 
     private static boolean isVerbose = false;
     private static boolean shouldOpen = false;
+    private static boolean useSubdivision = false;
+    private static boolean shouldBenchmark = false;
+    private static boolean shouldExportPyramid = false;
+    private static boolean shouldRecolor = false;
+    private static boolean shouldRunBatch = false;
+    private static boolean shouldServe = false;
 
     public Mandelbrot(Mandelbrot other) {
-        this(other.fullWidth, other.fullHeight, other.minRe, other.minIm, other.maxRe, other.maxIm, other.nMax,
-                other.innerColor, other.colorGradient);
+        this.fullWidth = other.fullWidth;
+        this.fullHeight = other.fullHeight;
+        this.minRe = other.minRe;
+        this.minIm = other.minIm;
+        this.maxRe = other.maxRe;
+        this.maxIm = other.maxIm;
+        this.centerRe = other.centerRe;
+        this.centerIm = other.centerIm;
+        this.rangeRe = other.rangeRe;
+        this.rangeIm = other.rangeIm;
+        this.calculateAreaDimensions(this.fullWidth, this.fullHeight);
+        this.nMax = other.nMax;
+        this.innerColor = other.innerColor;
+        this.colorGradient = other.colorGradient;
+        this.paletteMode = other.paletteMode;
+        this.paletteLength = other.paletteLength;
+    }
+
+    /**
+     * Creates a rectangle of pixels of the area of another Mandelbrot object (a
+     * band or tile of an export). It has the same area, pixel spacing and kernel
+     * as the other object, so that its pixels are exactly the ones of the other
+     * object. The rectangle may extend beyond the area.
+     * 
+     * @param firstColumn first column of the rectangle in the area of the other
+     *                    object
+     * @param firstRow    first row of the rectangle in the area of the other
+     *                    object
+     * @param columns     width of the rectangle
+     * @param rows        height of the rectangle
+     */
+    private Mandelbrot(Mandelbrot other, int firstColumn, int firstRow, int columns, int rows) {
+        this.minRe = other.minRe;
+        this.minIm = other.minIm;
+        this.maxRe = other.maxRe;
+        this.maxIm = other.maxIm;
+        this.centerRe = other.centerRe;
+        this.centerIm = other.centerIm;
+        this.rangeRe = other.rangeRe;
+        this.rangeIm = other.rangeIm;
+        this.nMax = other.nMax;
+        this.innerColor = other.innerColor;
+        this.colorGradient = other.colorGradient;
+        this.paletteMode = other.paletteMode;
+        this.paletteLength = other.paletteLength;
+        this.tileSize = other.tileSize;
+        this.useCardioidCheck = other.useCardioidCheck;
+        this.usePeriodicityCheck = other.usePeriodicityCheck;
+        this.periodicityTolerance = other.periodicityTolerance;
+        this.useLaneKernel = other.useLaneKernel;
+        this.useRectangleSubdivision = other.useRectangleSubdivision;
+        this.useSeriesApproximation = other.useSeriesApproximation;
+        this.seriesTolerance = other.seriesTolerance;
+        this.tileCache = other.tileCache;
+        this.colorPallete = other.colorPallete;
+        this.areaWidth = columns;
+        this.areaHeight = rows;
+        this.fullWidth = columns;
+        this.fullHeight = rows;
+        this.offsetX = 0;
+        this.offsetY = 0;
+        this.gridWidth = other.gridWidth;
+        this.firstColumn = other.firstColumn + firstColumn;
+        this.firstRow = other.firstRow + firstRow;
+        this.kernel = other.kernel;
+        this.ddCenterRe = other.ddCenterRe;
+        this.ddCenterIm = other.ddCenterIm;
+        this.refRe = other.refRe;
+        this.refIm = other.refIm;
+        this.refLength = other.refLength;
+        this.seriesSkip = other.seriesSkip;
+        this.seriesRadius = other.seriesRadius;
+        this.seriesARe = other.seriesARe;
+        this.seriesAIm = other.seriesAIm;
+        this.seriesBRe = other.seriesBRe;
+        this.seriesBIm = other.seriesBIm;
+        this.seriesCRe = other.seriesCRe;
+        this.seriesCIm = other.seriesCIm;
+    }
+
+    /**
+     * Creates a Mandelbrot object with the image size, area and nMax of an
+     * iteration dump.
+     */
+    private Mandelbrot(IterationDump dump, int innerColor, int[] colorGradient) {
+        this.fullWidth = dump.fullWidth;
+        this.fullHeight = dump.fullHeight;
+        this.minRe = dump.minRe;
+        this.minIm = dump.minIm;
+        this.maxRe = dump.maxRe;
+        this.maxIm = dump.maxIm;
+        this.rangeRe = dump.rangeRe;
+        this.rangeIm = dump.rangeIm;
+        this.centerRe = dump.centerRe;
+        this.centerIm = dump.centerIm;
+        this.areaWidth = dump.areaWidth;
+        this.areaHeight = dump.areaHeight;
+        this.offsetX = (int) Math.ceil((this.fullWidth - this.areaWidth) / 2.0D);
+        this.offsetY = (int) Math.ceil((this.fullHeight - this.areaHeight) / 2.0D);
+        this.gridWidth = this.areaWidth;
+        this.nMax = dump.nMax;
+        this.innerColor = innerColor;
+        this.colorGradient = colorGradient;
     }
 
     public Mandelbrot(Map<String, Object> config, int fullWidth, int fullHeight)
@@ -89,21 +389,29 @@ public class Mandelbrot {
         try {
             this.fullWidth = fullWidth;
             this.fullHeight = fullHeight;
-            this.minRe = (Double) config.get("minRe");
-            this.minIm = (Double) config.get("minIm");
-            this.maxRe = (Double) config.get("maxRe");
-            this.maxIm = (Double) config.get("maxIm");
-            double lenRe = maxRe - minRe;
-            double lenIm = maxIm - minIm;
-            if (lenRe < 0 || Math.abs(lenRe) < DIFF_EQUAL || lenIm < 0 || Math.abs(lenIm) < DIFF_EQUAL)
-                throw new IllegalArgumentException("The area of the complex plane is invalid or too small");
+            if (config.containsKey("centerRe")) {
+                // areas of deep zooms are stored by their exact center
+                this.setArea(new BigDecimal(config.get("centerRe").toString()),
+                        new BigDecimal(config.get("centerIm").toString()),
+                        Double.parseDouble(config.get("rangeRe").toString()),
+                        Double.parseDouble(config.get("rangeIm").toString()));
+            } else {
+                this.setArea((Double) config.get("minRe"), (Double) config.get("minIm"), (Double) config.get("maxRe"),
+                        (Double) config.get("maxIm"));
+            }
             this.calculateAreaDimensions(this.fullWidth, this.fullHeight);
             this.nMax = (Integer) config.get("nMax");
             this.innerColor = (Integer) config.get("innerColor");
             this.colorGradient = ((ArrayList<Integer>) config.get("colorGradient")).stream().mapToInt(i -> i).toArray();
             if (this.colorGradient.length == 0)
                 throw new IllegalArgumentException("There must be at least one color in the color gradient");
-            this.colorPallete = createColorPalette(this.innerColor, this.colorGradient, this.nMax);
+            // optional, the palette is linear by default
+            if (config.containsKey("paletteMode"))
+                this.paletteMode = parsePaletteMode(config.get("paletteMode").toString());
+            if (config.containsKey("paletteLength"))
+                this.paletteLength = (Integer) config.get("paletteLength");
+            if (this.paletteLength <= 0)
+                throw new IllegalArgumentException("The palette length must be positive");
         } catch (Exception e) {
             if (e instanceof IllegalArgumentException) {
                 throw e;
@@ -130,26 +438,74 @@ public class Mandelbrot {
             int innerColor, int[] colorGradient) throws IllegalArgumentException {
         this.fullWidth = fullWidth;
         this.fullHeight = fullHeight;
-        this.minRe = minRe;
-        this.minIm = minIm;
-        this.maxRe = maxRe;
-        this.maxIm = maxIm;
-        double lenRe = maxRe - minRe;
-        double lenIm = maxIm - minIm;
-        if (lenRe < 0 || Math.abs(lenRe) < DIFF_EQUAL || lenIm < 0 || Math.abs(lenIm) < DIFF_EQUAL)
-            throw new IllegalArgumentException("The area of the complex plane is too small");
+        this.setArea(minRe, minIm, maxRe, maxIm);
+        this.calculateAreaDimensions(this.fullWidth, this.fullHeight);
+        this.nMax = nMax;
+        this.innerColor = innerColor;
+        this.colorGradient = colorGradient;
+        if (this.colorGradient.length == 0)
+            throw new IllegalArgumentException("There must be at least one color in the color gradient");
+    }
+
+    /**
+     * Creates a Mandelbrot object whose area is given by its center and its size.
+     * The center is not limited to the precision of doubles, which makes zooms
+     * much deeper than 1E-15 possible.
+     * 
+     * @param centerRe Real part of the center of the area
+     * @param centerIm Imaginary part of the center of the area
+     * @param rangeRe  Width of the area of the complex plane
+     * @param rangeIm  Height of the area of the complex plane
+     */
+    public Mandelbrot(int fullWidth, int fullHeight, BigDecimal centerRe, BigDecimal centerIm, double rangeRe,
+            double rangeIm, int nMax, int innerColor, int[] colorGradient) throws IllegalArgumentException {
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.setArea(centerRe, centerIm, rangeRe, rangeIm);
         this.calculateAreaDimensions(this.fullWidth, this.fullHeight);
         this.nMax = nMax;
         this.innerColor = innerColor;
         this.colorGradient = colorGradient;
         if (this.colorGradient.length == 0)
             throw new IllegalArgumentException("There must be at least one color in the color gradient");
-        this.colorPallete = createColorPalette(this.innerColor, this.colorGradient, this.nMax);
+    }
+
+    private void setArea(double minRe, double minIm, double maxRe, double maxIm) {
+        this.minRe = minRe;
+        this.minIm = minIm;
+        this.maxRe = maxRe;
+        this.maxIm = maxIm;
+        this.rangeRe = maxRe - minRe;
+        this.rangeIm = maxIm - minIm;
+        if (!(this.rangeRe >= MIN_RANGE) || !(this.rangeIm >= MIN_RANGE))
+            throw new IllegalArgumentException("The area of the complex plane is invalid or too small");
+        this.centerRe = new BigDecimal(minRe).add(new BigDecimal(maxRe)).divide(TWO);
+        this.centerIm = new BigDecimal(minIm).add(new BigDecimal(maxIm)).divide(TWO);
+    }
+
+    private void setArea(BigDecimal centerRe, BigDecimal centerIm, double rangeRe, double rangeIm) {
+        if (!(rangeRe >= MIN_RANGE) || !(rangeIm >= MIN_RANGE))
+            throw new IllegalArgumentException("The area of the complex plane is too small");
+        this.centerRe = centerRe;
+        this.centerIm = centerIm;
+        this.rangeRe = rangeRe;
+        this.rangeIm = rangeIm;
+        this.minRe = centerRe.doubleValue() - rangeRe / 2.0D;
+        this.maxRe = centerRe.doubleValue() + rangeRe / 2.0D;
+        this.minIm = centerIm.doubleValue() - rangeIm / 2.0D;
+        this.maxIm = centerIm.doubleValue() + rangeIm / 2.0D;
+        // As long as doubles can represent the sides of the area, they define it
+        // just like for any other area
+        if (Math.abs((this.maxRe - this.minRe) - rangeRe) <= rangeRe * 1E-9
+                && Math.abs((this.maxIm - this.minIm) - rangeIm) <= rangeIm * 1E-9) {
+            this.rangeRe = this.maxRe - this.minRe;
+            this.rangeIm = this.maxIm - this.minIm;
+        }
     }
 
     private void calculateAreaDimensions(int fullWidth, int fullHeight) {
-        double rangeRe = Math.abs(maxRe - minRe);
-        double rangeIm = Math.abs(maxIm - minIm);
+        double rangeRe = Math.abs(this.rangeRe);
+        double rangeIm = Math.abs(this.rangeIm);
 
         this.areaWidth = (int) Math.ceil((double) fullHeight * (rangeRe / rangeIm));
         this.areaHeight = (int) fullHeight;
@@ -161,6 +517,29 @@ public class Mandelbrot {
 
         this.offsetX = (int) Math.ceil((this.fullWidth - this.areaWidth) / 2.0D);
         this.offsetY = (int) Math.ceil((this.fullHeight - this.areaHeight) / 2.0D);
+        this.gridWidth = this.areaWidth;
+    }
+
+    /**
+     * This method checks if the pixel spacing of the area is too small to be
+     * represented by doubles. In that case the area is calculated by perturbation
+     * around a reference orbit.
+     */
+    public boolean isDeepZoom() {
+        double s = this.rangeRe / (double) this.areaWidth;
+        double maxAbs = Math.max(Math.max(Math.abs(this.minRe), Math.abs(this.maxRe)),
+                Math.max(Math.abs(this.minIm), Math.abs(this.maxIm)));
+        return s < maxAbs * DOUBLE_PRECISION_LIMIT;
+    }
+
+    /**
+     * Returns a MathContext whose precision is sufficient to distinguish the
+     * pixels of the area.
+     */
+    public MathContext getMathContext() {
+        double s = this.rangeRe / (double) this.areaWidth;
+        int digits = (int) Math.ceil(-Math.log10(s)) + 12;
+        return new MathContext(Math.max(20, digits));
     }
 
     // GETTERS
@@ -210,11 +589,62 @@ public class Mandelbrot {
     }
 
     public double getRangeRe() {
-        return this.maxRe - this.minRe;
+        return this.rangeRe;
     }
 
     public double getRangeIm() {
-        return this.maxIm - this.minIm;
+        return this.rangeIm;
+    }
+
+    public BigDecimal getCenterRe() {
+        return this.centerRe;
+    }
+
+    public BigDecimal getCenterIm() {
+        return this.centerIm;
+    }
+
+    /**
+     * Returns the real part of the number at the horizontal pixel position px of
+     * the area.
+     */
+    public BigDecimal getRe(double px) {
+        double s = this.rangeRe / (double) this.areaWidth;
+        if (!this.isDeepZoom())
+            return BigDecimal.valueOf(this.minRe + Math.abs(this.maxRe - this.minRe) / (double) this.areaWidth * px);
+        return this.centerRe.add(new BigDecimal(-this.rangeRe / 2.0D + s * px)).round(this.getMathContext());
+    }
+
+    /**
+     * Returns the imaginary part of the number at the vertical pixel position py
+     * of the area.
+     */
+    public BigDecimal getIm(double py) {
+        double s = this.rangeRe / (double) this.areaWidth;
+        if (!this.isDeepZoom())
+            return BigDecimal.valueOf(this.maxIm - Math.abs(this.maxRe - this.minRe) / (double) this.areaWidth * py);
+        return this.centerIm.add(new BigDecimal(this.rangeIm / 2.0D - s * py)).round(this.getMathContext());
+    }
+
+    /**
+     * Returns the horizontal pixel position of the real part re in the area.
+     */
+    public double getPixelX(BigDecimal re) {
+        if (!this.isDeepZoom())
+            return ((re.doubleValue() - this.minRe) * this.areaWidth) / Math.abs(this.maxRe - this.minRe);
+        double s = this.rangeRe / (double) this.areaWidth;
+        return (re.subtract(this.centerRe).doubleValue() + this.rangeRe / 2.0D) / s;
+    }
+
+    /**
+     * Returns the vertical pixel position of the imaginary part im in the area.
+     */
+    public double getPixelY(BigDecimal im) {
+        if (!this.isDeepZoom())
+            return this.areaHeight - (((-im.doubleValue() + this.minIm) * this.areaHeight)
+                    / -Math.abs(this.maxIm - this.minIm));
+        double s = this.rangeRe / (double) this.areaWidth;
+        return (this.rangeIm / 2.0D - im.subtract(this.centerIm).doubleValue()) / s;
     }
 
     public int getNMax() {
@@ -229,6 +659,14 @@ public class Mandelbrot {
         return this.colorGradient;
     }
 
+    public PaletteMode getPaletteMode() {
+        return this.paletteMode;
+    }
+
+    public int getPaletteLength() {
+        return this.paletteLength;
+    }
+
     public int getOffsetX() {
         return this.offsetX;
     }
@@ -237,6 +675,38 @@ public class Mandelbrot {
         return this.offsetY;
     }
 
+    /**
+     * Returns the number of pixels of the last build whose iteration was stopped
+     * early because the sequence turned out to be periodic.
+     */
+    public long getPeriodicPixelCount() {
+        return this.periodicPixels.sum();
+    }
+
+    /**
+     * Returns the number of pixels of the last build that have actually been
+     * iterated (and not filled by the rectangle subdivision).
+     */
+    public long getIteratedPixelCount() {
+        return this.iteratedPixels.sum();
+    }
+
+    /**
+     * Returns the time in milliseconds that the last export has spent on encoding
+     * and writing the image, which is part of the build time.
+     */
+    public long getEncodeTime() {
+        return this.encodeNanos.sum() / 1000000L;
+    }
+
+    /**
+     * Returns the number of iterations that the series approximation has skipped
+     * for every pixel of the last build (0 if the area is no deep zoom).
+     */
+    public int getSeriesSkippedIterations() {
+        return this.kernel == Kernel.PERTURBATION ? this.seriesSkip : 0;
+    }
+
     public int[] getAreaIterationArray() {
         if (!isBuilt)
             return null;
@@ -248,9 +718,10 @@ public class Mandelbrot {
             return null;
         if (this.areaRGBArray != null)
             return this.areaRGBArray;
+        ColorMap colors = this.getColorMap(this.iterationData);
         this.areaRGBArray = new int[this.areaWidth * this.areaHeight];
         for (int i = 0; i < this.iterationData.length; i++)
-            this.areaRGBArray[i] = this.colorPallete[this.iterationData[i]];
+            this.areaRGBArray[i] = colors.getColor(this.iterationData[i]);
         return this.areaRGBArray;
     }
 
@@ -320,14 +791,18 @@ public class Mandelbrot {
         double widthFactor = (double) fullWidth / (double) areaWidth;
         double heightFactor = (double) fullHeight / (double) areaHeight;
 
-        double lengthRe = (maxRe - minRe);
-        double lengthIm = (maxIm - minIm);
+        double lengthRe = this.rangeRe;
+        double lengthIm = this.rangeIm;
         if (Math.abs(widthFactor - 1.0D) < DIFF_EQUAL)
             lengthIm = lengthRe * ((double) fullHeight / fullWidth);
 
         if (Math.abs(heightFactor - 1.0D) < DIFF_EQUAL)
             lengthRe = lengthIm * ((double) fullWidth / fullHeight);
 
+        if (this.isDeepZoom())
+            return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, centerRe, centerIm, lengthRe,
+                    lengthIm, nMax, innerColor, colorGradient));
+
         double diffRe = (lengthRe - (maxRe - minRe)) / 2.0D;
         double diffIm = (lengthIm - (maxIm - minIm)) / 2.0D;
 
@@ -336,8 +811,8 @@ public class Mandelbrot {
         double maxReNew = minReNew + lengthRe;
         double maxImNew = minImNew + lengthIm;
 
-        return new Mandelbrot(fullWidth, fullHeight, minReNew, minImNew, maxReNew, maxImNew, nMax, innerColor,
-                colorGradient);
+        return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, minReNew, minImNew, maxReNew, maxImNew,
+                nMax, innerColor, colorGradient));
     }
 
     /**
@@ -350,19 +825,48 @@ public class Mandelbrot {
      * @return
      */
     public Mandelbrot zoom(double re, double im, double factor) {
-        double rangeRe = Math.abs(this.maxRe - this.minRe);
-        double rangeIm = Math.abs(this.maxIm - this.minIm);
-        double newminRe = -rangeRe / (2.0D * factor) + re;
-        double newminIm = -rangeIm / (2.0D * factor) + im;
-        double newmaxRe = rangeRe / (2.0D * factor) + re;
-        double newmaxIm = rangeIm / (2.0D * factor) + im;
-        return new Mandelbrot(this.fullWidth, this.fullHeight, newminRe, newminIm, newmaxRe, newmaxIm, this.nMax,
-                this.innerColor, this.colorGradient);
+        return this.zoom(new BigDecimal(re), new BigDecimal(im), factor);
+    }
+
+    /**
+     * This method returns a new Mandelbrot object that is created by enlarging the
+     * area of the complex plane of this object by a certain factor.
+     * 
+     * @param re     real part of the new center
+     * @param im     imaginary part of the new center
+     * @param factor zoom factor
+     * @return
+     */
+    public Mandelbrot zoom(BigDecimal re, BigDecimal im, double factor) {
+        double rangeRe = Math.abs(this.rangeRe);
+        double rangeIm = Math.abs(this.rangeIm);
+        return this.withSameColoring(new Mandelbrot(this.fullWidth, this.fullHeight, re, im, rangeRe / factor,
+                rangeIm / factor, this.nMax, this.innerColor, this.colorGradient));
     }
 
     public Mandelbrot resizeImage(int fullWidth, int fullHeight) {
-        return new Mandelbrot(fullWidth, fullHeight, this.minRe, this.minIm, this.maxRe, this.maxIm, this.nMax,
-                this.innerColor, this.colorGradient);
+        return this.withSameArea(fullWidth, fullHeight, this.nMax, this.innerColor, this.colorGradient);
+    }
+
+    /**
+     * Creates a Mandelbrot object with the same area as this one. Areas of deep
+     * zooms are passed on by their exact center, all others by their sides.
+     */
+    private Mandelbrot withSameArea(int fullWidth, int fullHeight, int nMax, int innerColor, int[] colorGradient) {
+        if (this.isDeepZoom())
+            return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, this.centerRe, this.centerIm,
+                    this.rangeRe, this.rangeIm, nMax, innerColor, colorGradient));
+        return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, this.minRe, this.minIm, this.maxRe,
+                this.maxIm, nMax, innerColor, colorGradient));
+    }
+
+    /**
+     * Passes the palette mode of this object on to a new object of the same view.
+     */
+    private Mandelbrot withSameColoring(Mandelbrot mandelbrot) {
+        mandelbrot.paletteMode = this.paletteMode;
+        mandelbrot.paletteLength = this.paletteLength;
+        return mandelbrot;
     }
 
     public Mandelbrot lolToSize(int fullWidth, int fullHeight) {
@@ -370,11 +874,60 @@ public class Mandelbrot {
         double widthFactor = (double) fullWidth / (double) this.areaWidth;
         double heightFactor = (double) fullHeight / (double) this.areaHeight;
 
+        if (this.isDeepZoom()) {
+            // keep the top left corner of the area in place
+            double rangeReNew = this.rangeRe * widthFactor;
+            double rangeImNew = this.rangeIm * heightFactor;
+            BigDecimal centerReNew = this.centerRe.add(new BigDecimal((rangeReNew - this.rangeRe) / 2.0D));
+            BigDecimal centerImNew = this.centerIm.subtract(new BigDecimal((rangeImNew - this.rangeIm) / 2.0D));
+            return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, centerReNew, centerImNew, rangeReNew,
+                    rangeImNew, this.nMax, this.innerColor, this.colorGradient));
+        }
+
         double maxReNew = this.minRe + Math.abs(this.maxRe - this.minRe) * widthFactor;
         double minImNew = this.maxIm - Math.abs(this.maxIm - this.minIm) * heightFactor;
 
-        return new Mandelbrot(fullWidth, fullHeight, this.minRe, minImNew, maxReNew, this.maxIm, this.nMax,
-                this.innerColor, this.colorGradient);
+        return this.withSameColoring(new Mandelbrot(fullWidth, fullHeight, this.minRe, minImNew, maxReNew,
+                this.maxIm, this.nMax, this.innerColor, this.colorGradient));
+    }
+
+    /**
+     * This method returns a new Mandelbrot object with the same area but a
+     * different maximum number of iterations.
+     */
+    public Mandelbrot changeNMax(int nMax) {
+        Mandelbrot mandelbrot = this.withSameArea(this.fullWidth, this.fullHeight, nMax, this.innerColor,
+                this.colorGradient);
+        // the new object continues the sequences where this one has stopped
+        mandelbrot.keepOrbitState = this.keepOrbitState;
+        if (this.isBuilt && this.orbitRe != null)
+            mandelbrot.resumeSource = this;
+        return mandelbrot;
+    }
+
+    /**
+     * This method returns a new Mandelbrot object with the same area but a
+     * different coloring.
+     */
+    public Mandelbrot changeColoring(int innerColor, int[] colorGradient) {
+        return this.withSameArea(this.fullWidth, this.fullHeight, this.nMax, innerColor, colorGradient);
+    }
+
+    /**
+     * This method returns a new Mandelbrot object with the same area but a
+     * different coloring and palette mode.
+     * 
+     * @param paletteLength iterations per repetition of the gradient (only used
+     *                      by CYCLIC)
+     */
+    public Mandelbrot changeColoring(int innerColor, int[] colorGradient, PaletteMode paletteMode,
+            int paletteLength) {
+        if (paletteLength <= 0)
+            throw new IllegalArgumentException("The palette length must be positive");
+        Mandelbrot mandelbrot = this.changeColoring(innerColor, colorGradient);
+        mandelbrot.paletteMode = paletteMode;
+        mandelbrot.paletteLength = paletteLength;
+        return mandelbrot;
     }
 
     /**
@@ -386,6 +939,22 @@ public class Mandelbrot {
         if (!(o instanceof Mandelbrot))
             return false;
         Mandelbrot mandelbrot = (Mandelbrot) o;
+        if (!this.hasSameIterationData(mandelbrot))
+            return false;
+        if (this.innerColor != mandelbrot.innerColor)
+            return false;
+        if (!Arrays.equals(this.colorGradient, mandelbrot.colorGradient))
+            return false;
+        if (this.paletteMode != mandelbrot.paletteMode || this.paletteLength != mandelbrot.paletteLength)
+            return false;
+        return true;
+    }
+
+    /**
+     * This method checks if another Mandelbrot object calculates the same
+     * iterations as this one, i.e. if it only differs in the coloring.
+     */
+    public boolean hasSameIterationData(Mandelbrot mandelbrot) {
         if (this.fullWidth != mandelbrot.fullWidth)
             return false;
         if (this.fullHeight != mandelbrot.fullHeight)
@@ -398,66 +967,249 @@ public class Mandelbrot {
             return false;
         if (this.maxIm != mandelbrot.maxIm)
             return false;
-        if (this.nMax != mandelbrot.nMax)
+        if (this.rangeRe != mandelbrot.rangeRe || this.rangeIm != mandelbrot.rangeIm)
             return false;
-        if (this.innerColor != mandelbrot.innerColor)
+        if (this.centerRe.compareTo(mandelbrot.centerRe) != 0 || this.centerIm.compareTo(mandelbrot.centerIm) != 0)
             return false;
-        if (!Arrays.equals(this.colorGradient, mandelbrot.colorGradient))
+        if (this.nMax != mandelbrot.nMax)
+            return false;
+        return true;
+    }
+
+    /**
+     * This method takes over the iteration data of another, already built
+     * Mandelbrot object with the same iterations, so that a change of the colors
+     * only needs the (fast) coloring of the existing data instead of a new build.
+     * 
+     * @return true if the data has been taken over and this object is built
+     */
+    public boolean reuseIterationData(Mandelbrot other) {
+        if (other == null || other == this || !other.isBuilt || this.isBuilding || !this.hasSameIterationData(other))
             return false;
+        // built iteration data is never modified, so both objects can share it
+        this.iterationData = other.iterationData;
+        this.kernel = other.kernel;
+        this.orbitRe = other.orbitRe;
+        this.orbitIm = other.orbitIm;
+        this.orbitRef = other.orbitRef;
+        this.stateData = other.stateData;
+        this.stateNMax = other.stateNMax;
+        this.areaRGBArray = null;
+        this.areaImage = null;
+        this.imageRGBArray = null;
+        this.isBuilt = true;
         return true;
     }
 
+    /**
+     * Maps the iteration counts of an image to colors in the palette mode of the
+     * object (see getColorMap)
+     */
+    private final class ColorMap {
+        private final int[] palette; // The color for nMax is the last one
+        private final int[] limits; // Counts at the quantiles of the histogram (HISTOGRAM)
+        private final double logScale; // Palette index per log(1 + n) (LOG)
+
+        ColorMap(int[] palette, int[] limits) {
+            this.palette = palette;
+            this.limits = limits;
+            this.logScale = (palette.length - 1) / Math.log1p(nMax);
+        }
+
+        int getColor(int n) {
+            int steps = this.palette.length - 1;
+            if (paletteMode == PaletteMode.LINEAR || n >= nMax)
+                return this.palette[Math.min(n, steps)];
+            switch (paletteMode) {
+            case CYCLIC:
+                return this.palette[n % steps];
+            case LOG:
+                return this.palette[Math.min(steps - 1, (int) (Math.log1p(n) * this.logScale))];
+            case SQRT:
+                return this.palette[Math.min(steps - 1, (int) (Math.sqrt((double) n / nMax) * steps))];
+            default:
+                // number of quantiles that are not above n
+                int low = 0;
+                int high = this.limits.length;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (this.limits[mid] <= n)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                return this.palette[low];
+            }
+        }
+    }
+
+    /**
+     * Returns the color map of an image of this object. The histogram of the mode
+     * HISTOGRAM is taken from the counts, which may contain unknown pixels (-1).
+     * Without counts it is taken from histogramSample or, if there is none, from a
+     * small build of the area.
+     */
+    private ColorMap getColorMap(int[] counts) throws OutOfMemoryError {
+        int[] palette = this.preparePalette();
+        if (this.paletteMode != PaletteMode.HISTOGRAM)
+            return new ColorMap(palette, null);
+        if (counts == null)
+            counts = this.histogramSample != null ? this.histogramSample : this.createHistogramSample();
+        int step = Math.max(1, counts.length / HISTOGRAM_SAMPLES);
+        int[] sample = new int[(counts.length + step - 1) / step];
+        int size = 0;
+        for (int i = 0; i < counts.length; i += step)
+            if (counts[i] >= 0 && counts[i] < this.nMax)
+                sample[size++] = counts[i];
+        Arrays.sort(sample, 0, size);
+        int[] limits = new int[PALETTE_STEPS - 1];
+        for (int j = 0; j < limits.length; j++)
+            limits[j] = size > 0 ? sample[(int) ((j + 1L) * size / PALETTE_STEPS)] : this.nMax;
+        return new ColorMap(palette, limits);
+    }
+
+    /**
+     * Creates the palette of the colors and the palette mode if it does not exist
+     * yet. Only the palette of LINEAR depends on nMax, it is the one that may not
+     * fit into the memory.
+     */
+    int[] preparePalette() throws OutOfMemoryError {
+        int[] palette = this.colorPallete;
+        if (palette == null) {
+            int steps = this.paletteMode == PaletteMode.LINEAR ? this.nMax
+                    : this.paletteMode == PaletteMode.CYCLIC ? this.paletteLength : PALETTE_STEPS;
+            try {
+                palette = getColorPalette(this.innerColor, this.colorGradient, steps);
+            } catch (OutOfMemoryError err) {
+                throw new OutOfMemoryError("Not enough allocated storage");
+            }
+            this.colorPallete = palette;
+        }
+        return palette;
+    }
+
+    /**
+     * Returns the iteration counts of a build of the area with at most
+     * HISTOGRAM_PREVIEW_SIZE pixels per side, the histogram of images whose
+     * counts are never all in memory (bands and pyramids).
+     */
+    private int[] createHistogramSample() {
+        double scale = Math.min(1.0D, (double) HISTOGRAM_PREVIEW_SIZE / Math.max(this.fullWidth, this.fullHeight));
+        Mandelbrot preview = this.withSameArea(Math.max(1, (int) Math.round(this.fullWidth * scale)),
+                Math.max(1, (int) Math.round(this.fullHeight * scale)), this.nMax, this.innerColor,
+                this.colorGradient);
+        return preview.compute(Runnable::run).join();
+    }
+
+    private static PaletteMode parsePaletteMode(String name) {
+        try {
+            return PaletteMode.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The palette mode must be one of " + Arrays.toString(PaletteMode.values()));
+        }
+    }
+
+    /**
+     * Returns the color palette of the colors and nMax from the palettes that are
+     * shared by all Mandelbrot objects, so that zooming or resizing does not
+     * create it again. The palettes must not be modified.
+     */
+    private static int[] getColorPalette(int color, int[] gradient, int nMax) throws IllegalArgumentException {
+        PaletteKey key = new PaletteKey(color, gradient, nMax);
+        synchronized (PALETTES) {
+            int[] palette = PALETTES.get(key);
+            if (palette != null)
+                return palette;
+        }
+        int[] palette = createColorPalette(color, gradient, nMax);
+        synchronized (PALETTES) {
+            if (PALETTES.put(key, palette) == null)
+                cachedPaletteColors += palette.length;
+            // the newest palette is kept even if it is larger than the limit
+            Iterator<int[]> it = PALETTES.values().iterator();
+            while (cachedPaletteColors > MAX_CACHED_PALETTE_COLORS && PALETTES.size() > 1) {
+                cachedPaletteColors -= it.next().length;
+                it.remove();
+            }
+        }
+        return palette;
+    }
+
+    /**
+     * Key of a palette in PALETTES
+     */
+    private static final class PaletteKey {
+        private final int color;
+        private final int[] gradient;
+        private final int nMax;
+
+        PaletteKey(int color, int[] gradient, int nMax) {
+            this.color = color;
+            this.gradient = gradient.clone();
+            this.nMax = nMax;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PaletteKey))
+                return false;
+            PaletteKey other = (PaletteKey) o;
+            return this.color == other.color && this.nMax == other.nMax && Arrays.equals(this.gradient, other.gradient);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * this.color + this.nMax) * 31 + Arrays.hashCode(this.gradient);
+        }
+    }
+
     /**
      * This Methods creates a color palette based on a color for the inside of the
-     * set and a color gradient characterized by multiple colors
+     * set and a color gradient characterized by multiple colors. The colors of the
+     * gradient are spread evenly in reverse order over the iteration counts, the
+     * last one for 0 iterations, like the linear gradient paint of Java2D that was
+     * used before.
      * 
      * @param color    color for the inside of the set
      * @param gradient color gradient for the outside of the set
      * @param nMax     maximum number of iterations
      * @return
      */
-    private int[] createColorPalette(int color, int[] gradient, int nMax) throws IllegalArgumentException {
+    private static int[] createColorPalette(int color, int[] gradient, int nMax) throws IllegalArgumentException {
         if (gradient.length == 0)
-            new IllegalArgumentException("There must be at least one color in the color gradient");
-
-        if (nMax == 0)
-            return new int[] { color };
-
-        if (gradient.length == 1) {
-            int[] palette = new int[nMax + 1];
-            for (int i = 0; i < nMax; i++)
-                palette[i] = gradient[0];
-            palette[nMax] = color;
-            return palette;
-        }
-
-        // reverse the gradient
-        int[] gradientRev = new int[gradient.length];
-        int c = 0;
-        for (int i = gradient.length - 1; i >= 0; i--)
-            gradientRev[c++] = gradient[i];
-
-        // build the color palette
-        float[] fractions = new float[gradientRev.length];
-        for (int i = 0; i < fractions.length; i++)
-            fractions[i] = ((float) 1 / gradientRev.length) * i;
-        Color[] colorsGradient = new Color[gradientRev.length];
-        for (int i = 0; i < colorsGradient.length; i++)
-            colorsGradient[i] = new Color(gradientRev[i]);
-        LinearGradientPaint p = new LinearGradientPaint(0, 0, nMax, 1, fractions, colorsGradient);
-        BufferedImage bi = new BufferedImage(nMax, 1, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = bi.createGraphics();
-        g2d.setPaint(p);
-        g2d.fillRect(0, 0, nMax, 1);
-        g2d.dispose();
+            throw new IllegalArgumentException("There must be at least one color in the color gradient");
 
         int[] palette = new int[nMax + 1];
-        for (int i = 0; i < bi.getWidth(); i++)
-            palette[i] = bi.getRGB(i, 0);
+        int last = gradient.length - 1;
+        // count i lies at i * L / nMax on the gradient of L colors, so the colors k
+        // and k + 1 of the reversed gradient share the counts up to (k + 1) * nMax / L
+        int i = 0;
+        for (int k = 0; k < last; k++) {
+            long end = ((k + 1L) * nMax + last) / gradient.length;
+            for (; i < end; i++)
+                palette[i] = 0xFF000000 | interpolate(gradient[last - k], gradient[last - k - 1],
+                        (long) i * gradient.length - (long) k * nMax, nMax);
+        }
+        for (; i < nMax; i++)
+            palette[i] = 0xFF000000 | gradient[0];
         palette[nMax] = color;
         return palette;
     }
 
+    /**
+     * Returns the color at num / den of the way between two colors, rounded per
+     * channel.
+     */
+    private static int interpolate(int from, int to, long num, long den) {
+        int rgb = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            long a = from >> shift & 0xFF;
+            long b = to >> shift & 0xFF;
+            rgb |= (int) ((a * (den - num) + b * num + den / 2) / den) << shift;
+        }
+        return rgb;
+    }
+
     /**
      * This method exports the Mandelbrot object into an image. It can only be
      * called when finished building.
@@ -467,7 +1219,7 @@ public class Mandelbrot {
     public void exportImage(String path) throws OutOfMemoryError {
         try {
             try {
-                ImageIO.write(this.getFullImage(), "jpg", new File(path));
+                this.writeBuiltImage(path);
             } catch (IOException var5) {
                 var5.printStackTrace();
             }
@@ -476,10 +1228,21 @@ public class Mandelbrot {
         }
     }
 
+    /**
+     * Writes the built image or its iteration dump like exportImage, but reports
+     * errors to the caller.
+     */
+    private void writeBuiltImage(String path) throws IOException {
+        if (isIterationDump(path))
+            this.exportIterationData(path);
+        else
+            this.writeImage(this.getFullImage(), path);
+    }
+
     public void saveAreaAsPicture(String path) throws OutOfMemoryError {
         try {
             try {
-                ImageIO.write(this.getAreaImage(), "jpg", new File(path));
+                this.writeImage(this.getAreaImage(), path);
             } catch (IOException var5) {
                 var5.printStackTrace();
             }
@@ -488,150 +1251,1141 @@ public class Mandelbrot {
         }
     }
 
-    public void build(final Runnable onFinish) {
-        this.build((percentage) -> {
-            // empty
-        }, onFinish);
+    /**
+     * This method writes an image in the format given by the extension of the
+     * path: PNG and PPM files are lossless, all other files are JPEG images with
+     * the quality jpegQuality.
+     */
+    private void writeImage(BufferedImage image, String path) throws IOException {
+        long start = System.nanoTime();
+        if (canExportInBands(path)) {
+            int width = image.getWidth();
+            int[] row = new int[width];
+            try (ImageRowWriter writer = this.createRowWriter(new FileOutputStream(path), path, width,
+                    image.getHeight())) {
+                for (int y = 0; y < image.getHeight(); y++) {
+                    image.getRGB(0, y, width, 1, row, 0, width);
+                    writer.writeRows(row, 0, 1);
+                }
+            }
+        } else {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(this.jpegQuality);
+            try (OutputStream out = new FileOutputStream(path);
+                    ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+                writer.setOutput(imageOut);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+        this.encodeNanos.add(System.nanoTime() - start);
     }
 
-    public void build(final Executable<Integer> onProgress, final Runnable onFinish) throws OutOfMemoryError {
-
-        // make sure we are on the Swing UI Thread
-        if (!SwingUtilities.isEventDispatchThread()) {
-            SwingUtilities.invokeLater(() -> build(onProgress, onFinish));
-            return;
+    /**
+     * This method writes the iteration counts of the area to an iteration dump
+     * (see IterationDump), so that they can be colored again without a new build
+     * (see recolorIterationDump). It can only be called when finished building.
+     */
+    public void exportIterationData(String path) throws IOException {
+        long start = System.nanoTime();
+        try (FileOutputStream out = new FileOutputStream(path)) {
+            IterationDump.Writer dump = this.getIterationDump().create(out.getChannel());
+            dump.writeRows(this.iterationData, 0, this.areaHeight);
+            dump.close();
         }
+        this.encodeNanos.add(System.nanoTime() - start);
+    }
 
-        if (isBuilding) {
-            return;
+    /**
+     * Reads evenly spaced rows of an iteration dump with at most HISTOGRAM_SAMPLES
+     * counts together (see getColorMap).
+     */
+    private static int[] readHistogramSample(String dumpPath) throws IOException {
+        try (IterationDump.Reader reader = IterationDump.open(Paths.get(dumpPath))) {
+            int width = reader.dump.areaWidth;
+            int height = reader.dump.areaHeight;
+            int step = Math.max(1, (int) ((long) width * height / HISTOGRAM_SAMPLES));
+            int[] sample = new int[width * ((height + step - 1) / step)];
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                reader.readRows(row, 0, 1);
+                if (y % step == 0)
+                    System.arraycopy(row, 0, sample, y / step * width, width);
+            }
+            return sample;
         }
+    }
 
-        if (isBuilt) {
-            onProgress.run(100);
-            onFinish.run();
-            return;
-        }
+    private IterationDump getIterationDump() {
+        return new IterationDump(this.fullWidth, this.fullHeight, this.areaWidth, this.areaHeight, this.nMax,
+                this.minRe, this.minIm, this.maxRe, this.maxIm, this.rangeRe, this.rangeIm, this.centerRe,
+                this.centerIm);
+    }
 
-        this.startTime = System.currentTimeMillis();
+    /**
+     * This method colors the iteration counts of an iteration dump with the colors
+     * and the background of this object and writes the image, without iterating
+     * again. The image has the size, area and nMax of the dump. PNG and PPM images
+     * are written in bands, so only one band of the dump is in memory at a time.
+     * 
+     * @param dumpPath path of the iteration dump
+     * @param path     export path
+     */
+    public void recolorIterationDump(String dumpPath, String path) throws IOException {
+        try (IterationDump.Reader reader = IterationDump.open(Paths.get(dumpPath))) {
+            Mandelbrot view = this.withSameColoring(new Mandelbrot(reader.dump, this.innerColor, this.colorGradient));
+            if (view.paletteMode == PaletteMode.HISTOGRAM)
+                view.histogramSample = readHistogramSample(dumpPath);
+            view.useBackgroundPattern = this.useBackgroundPattern;
+            view.backgroundColor = this.backgroundColor;
+            view.patternColor1 = this.patternColor1;
+            view.patternColor2 = this.patternColor2;
+            view.pngCompressionLevel = this.pngCompressionLevel;
+            view.jpegQuality = this.jpegQuality;
+            BandSource source = (firstRow, rows) -> {
+                int[] counts = new int[view.areaWidth * rows];
+                reader.readRows(counts, 0, rows);
+                return counts;
+            };
+            this.startTime = System.currentTimeMillis();
+            this.encodeNanos.reset();
+            if (canExportInBands(path) && !isIterationDump(path)) {
+                File file = new File(path);
+                boolean isWritten = false;
+                try (OutputStream out = new FileOutputStream(file)) {
+                    ImageRowWriter writer = view.createRowWriter(out, path, view.fullWidth, view.fullHeight);
+                    view.writeBands(writer, null, source, (percentage) -> {
+                        // empty
+                    });
+                    writer.close();
+                    isWritten = true;
+                } finally {
+                    if (!isWritten)
+                        file.delete();
+                }
+            } else {
+                view.iterationData = source.getRows(0, view.areaHeight);
+                view.isBuilt = true;
+                view.exportImage(path);
+            }
+            this.encodeNanos.add(view.encodeNanos.sum());
+        }
+    }
+
+    /**
+     * Returns a writer for PNG or PPM files (see canExportInBands).
+     */
+    private ImageRowWriter createRowWriter(OutputStream out, String path, int width, int height)
+            throws IOException {
+        if (path.toLowerCase().endsWith(".png"))
+            return new PngWriter(out, width, height, this.pngCompressionLevel);
+        return new PpmWriter(out, width, height);
+    }
+
+    public void build(final Runnable onFinish) {
+        this.build((percentage) -> {
+            // empty
+        }, onFinish);
+    }
+
+    /**
+     * Builds the area like build(onProgress, onFinish, onError). A failed build
+     * is thrown on the Swing UI thread.
+     */
+    public void build(final Executable<Integer> onProgress, final Runnable onFinish) {
+        this.build(onProgress, onFinish, (error) -> {
+            throw new CompletionException(error);
+        });
+    }
+
+    /**
+     * Builds the area like compute and reports the progress and the end of the
+     * build on the Swing UI thread. The progress is polled every
+     * PROGRESS_INTERVAL milliseconds.
+     * 
+     * @param onProgress called with the percentage of calculated pixels
+     * @param onFinish   called when the area has been built
+     * @param onError    called with the cause if the build has failed, e.g. with
+     *                   an OutOfMemoryError
+     */
+    public void build(final Executable<Integer> onProgress, final Runnable onFinish,
+            final Executable<Throwable> onError) {
+
+        // make sure we are on the Swing UI Thread
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> build(onProgress, onFinish, onError));
+            return;
+        }
+
+        if (isBuilding) {
+            return;
+        }
+
+        if (isBuilt) {
+            onProgress.run(100);
+            onFinish.run();
+            return;
+        }
+
+        CompletableFuture<int[]> result;
+        try {
+            result = this.compute(BUILD_EXECUTOR);
+        } catch (OutOfMemoryError err) {
+            onError.run(err);
+            return;
+        }
+        int[] lastPercentage = { 0 };
+        Timer progressTimer = new Timer(PROGRESS_INTERVAL, (e) -> {
+            int percentage = this.getProgress();
+            if (isBuilding && (percentage != lastPercentage[0] || hasNewPreview)) {
+                lastPercentage[0] = percentage;
+                hasNewPreview = false;
+                onProgress.run(percentage);
+            }
+        });
+        progressTimer.start();
+        result.whenComplete((data, error) -> SwingUtilities.invokeLater(progressTimer::stop));
+        reportOnSwingThread(result, onProgress, onFinish, onError);
+    }
+
+    /**
+     * Reports the end of a build or an export on the Swing UI thread: onProgress
+     * with 100 and onFinish if it has succeeded, onError with the cause if it has
+     * failed and nothing if it has been aborted.
+     */
+    private static void reportOnSwingThread(CompletableFuture<?> result, Executable<Integer> onProgress,
+            Runnable onFinish, Executable<Throwable> onError) {
+        result.whenComplete((v, error) -> SwingUtilities.invokeLater(() -> {
+            if (error instanceof CancellationException)
+                return;
+            if (error != null) {
+                onError.run(error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                        : error);
+                return;
+            }
+            onProgress.run(100);
+            onFinish.run();
+        }));
+    }
+
+    /**
+     * Builds the area on the executor (see RenderEngine). The tiles are calculated
+     * by the pool of the class, the executor only runs the build itself. A build
+     * that is running is not started again, and the future of a built object
+     * completes immediately.
+     */
+    @Override
+    public synchronized CompletableFuture<int[]> compute(Executor executor) throws OutOfMemoryError {
+        if (this.isBuilding && this.buildResult != null)
+            return this.buildResult;
+        if (this.isBuilt)
+            return CompletableFuture.completedFuture(this.iterationData);
+
+        this.startTime = System.currentTimeMillis();
+        this.prepareKernel(this.chooseKernel());
+        Mandelbrot source = this.resumeSource;
+        this.resumeSource = null;
+        if (!this.keepOrbitState || source == null || source.orbitRe == null || source.kernel != this.kernel)
+            source = null;
+        this.resumingFrom = source;
+        final Mandelbrot seed = source == null ? this.seed : null;
+        this.seed = null;
+        final int[] seedOffset = seed != null ? this.getSeedOffset(seed) : null;
+        final boolean isProgressive = this.useProgressiveBuild && source == null && !this.useRectangleSubdivision;
+        final TileCache.Grid cacheGrid = this.getCacheGrid();
+        final boolean isCached = cacheGrid != null && source == null;
+        this.hasUnknownPixels = seedOffset != null || isCached || isProgressive || this.useRectangleSubdivision;
+        this.previewImage = null;
+        this.hasNewPreview = false;
         try {
             this.iterationData = new int[this.areaWidth * this.areaHeight];
-            this.workerThreads = new SwingWorker[this.NUMTHREADS];
+            this.prepareOrbitState(source);
         } catch (OutOfMemoryError err) {
             throw new OutOfMemoryError("Not enough allocated storage");
         }
-        this.percentageCompleted = 0;
-        this.rowsCompleted = 0;
+        this.pixelsDone.reset();
+        this.periodicPixels.reset();
+        this.iteratedPixels.reset();
+        this.encodeNanos.reset();
         this.isBuilding = true;
 
-        for (int i = 0; i < this.NUMTHREADS; i++) {
-            final int k = i;
-
-            this.workerThreads[i] = new SwingWorker<int[], Integer>() {
-                int xBegin;
-                int xEnd;
-                int xRange;
-                int yBegin;
-                int yEnd;
-                int yRange;
-
-                protected int[] doInBackground() {
-                    try {
-                        this.xBegin = 0;
-                        this.xEnd = areaWidth;
-                        this.xRange = this.xEnd - this.xBegin;
-                        this.yBegin = k * (areaHeight / NUMTHREADS);
-                        this.yEnd = k * (areaHeight / NUMTHREADS) + areaHeight / NUMTHREADS;
-
-                        if (k == NUMTHREADS - 1)
-                            this.yEnd = areaHeight;
-
-                        this.yRange = this.yEnd - this.yBegin;
-
-                        int[] part = new int[this.xRange * this.yRange];
-
-                        for (int row = 0; row < this.yRange; ++row) {
-                            for (int col = 0; col < this.xRange; ++col) {
-                                if (!isBuilding)
-                                    return null;
-                                double px = (double) (this.xBegin + col);
-                                double py = (double) (this.yBegin + row);
-                                double zOriginRe = minRe;
-                                double zOriginIm = maxIm;
-                                double s = Math.abs(maxRe - minRe) / (double) areaWidth;
-                                double cRe = zOriginRe + s * px;
-                                double cIm = zOriginIm - s * py;
-                                part[row * this.xRange + col] = iterate(cRe, cIm);
-                            }
-
-                            this.publish(new Integer[] { row });
-                        }
+        final int tileSize = Math.max(1, this.tileSize);
+        final int tilesX = (this.areaWidth + tileSize - 1) / tileSize;
+        final int tilesY = (this.areaHeight + tileSize - 1) / tileSize;
+        final CompletableFuture<int[]> result = new CompletableFuture<>();
+        this.buildResult = result;
 
-                        return part;
-                    } catch (Throwable t) {
-                        System.out.println(t);
-                        throw new OutOfMemoryError("Not enough allocated storage");
+        executor.execute(() -> {
+            try {
+                Executable<Integer> onPixelsDone = (pixels) -> pixelsDone.add(pixels);
+                if (kernel == Kernel.PERTURBATION) {
+                    computeReferenceOrbit();
+                    computeSeriesApproximation();
+                }
+                if (hasUnknownPixels) {
+                    Arrays.fill(iterationData, -1);
+                    if (seedOffset != null) {
+                        previewImage = createSeedPreviewImage(seed, seedOffset[0], seedOffset[1], seedOffset[2]);
+                        hasNewPreview = true;
+                        pixelsDone.add(copySeed(seed, seedOffset[0], seedOffset[1], seedOffset[2]));
                     }
+                    if (isCached)
+                        pixelsDone.add(tileCache.load(cacheGrid, iterationData, areaWidth, areaHeight));
                 }
-
-                protected void process(List<Integer> rows) {
-                    if (isBuilding) {
-                        rowsCompleted = rowsCompleted + rows.size();
-                        int lastPercentage = percentageCompleted;
-                        percentageCompleted = (int) Math.round(rowsCompleted * 100.0D / (double) areaHeight);
-                        if (lastPercentage != percentageCompleted) {
-                            onProgress.run(percentageCompleted);
+                if (resumingFrom != null) {
+                    POOL.invoke(new TileTask(0, tilesX * tilesY, tilesX, tileSize, 1, onPixelsDone));
+                } else if (useRectangleSubdivision) {
+                    POOL.invoke(new SubdivisionTask(0, 0, areaWidth, areaHeight, onPixelsDone));
+                } else {
+                    // The tiles are distributed among the threads of the pool. A thread that has
+                    // finished its tiles steals remaining ones from the others.
+                    for (int stride = isProgressive ? 16 : 1; stride >= 1 && isBuilding; stride /= 4) {
+                        POOL.invoke(new TileTask(0, tilesX * tilesY, tilesX, tileSize, stride, onPixelsDone));
+                        // the enlarged seed of a zoom is finer than the coarse passes
+                        if (stride > 1 && (seedOffset == null || stride < seedOffset[2])) {
+                            previewImage = createPreviewImage(stride);
+                            hasNewPreview = true;
                         }
                     }
                 }
+                // the known pixels of an aborted build can be cached as well
+                if (cacheGrid != null && (isBuilding || hasUnknownPixels))
+                    tileCache.store(cacheGrid, iterationData, areaWidth, areaHeight);
+            } catch (Throwable t) {
+                isBuilding = false;
+                result.completeExceptionally(t);
+                return;
+            }
+            if (!isBuilding) {
+                result.cancel(false);
+                return;
+            }
+            resumingFrom = null;
+            isBuilt = true;
+            isBuilding = false;
+            result.complete(iterationData);
+        });
+        return result;
+    }
 
-                public void done() {
-                    try {
-                        int[] part = (int[]) this.get();
-                        if (part != null) {
-                            int normalPartLength = areaWidth
-                                    * ((k * (areaHeight / NUMTHREADS) + areaHeight / NUMTHREADS)
-                                            - (k * (areaHeight / NUMTHREADS)));
-                            System.arraycopy(part, 0, iterationData, normalPartLength * k, part.length);
-                        }
-                    } catch (ExecutionException | InterruptedException var3) {
-                        String message = var3.getCause().getMessage();
-                        if (message.equals("Java heap space")) {
-                            throw new OutOfMemoryError("Not enough allocated storage");
-                        }
-                    }
+    @Override
+    public int getProgress() {
+        if (this.isBuilt)
+            return 100;
+        long numPixels = (long) this.areaWidth * this.areaHeight;
+        return (int) Math.min(100, Math.round(this.pixelsDone.sum() * 100.0D / (double) numPixels));
+    }
 
-                    ++finishedThreads;
-                    if (finishedThreads == workerThreads.length) {
-                        finishedThreads = 0;
-                        isBuilt = true;
-                        isBuilding = false;
-                        onProgress.run(100);
-                        onFinish.run();
-                    }
+    /**
+     * Returns the position of the area in the tile cache or null if the area is
+     * not cached. Only the double kernel is cached, and not with a periodicity
+     * tolerance, whose counts depend on the exact position of the pixels. The
+     * other settings that can change the counts separate the grids.
+     */
+    private TileCache.Grid getCacheGrid() {
+        if (this.tileCache == null || this.kernel != Kernel.DOUBLE
+                || (this.usePeriodicityCheck && this.periodicityTolerance != 0.0D))
+            return null;
+        int settings = (this.useCardioidCheck ? 1 : 0) | (this.usePeriodicityCheck ? 2 : 0)
+                | (this.useLaneKernel ? 4 : 0) | (this.useRectangleSubdivision ? 8 : 0);
+        double s = Math.abs(this.maxRe - this.minRe) / (double) this.gridWidth;
+        return new TileCache.Grid(s, this.minRe, this.maxIm, this.nMax, settings).shift(this.firstColumn,
+                this.firstRow);
+    }
 
+    /**
+     * Returns true if images in the format of the file can be written by
+     * buildAndExport without having the whole image in memory.
+     */
+    public static boolean canExportInBands(String path) {
+        String name = path.toLowerCase();
+        return name.endsWith(".png") || name.endsWith(".ppm") || isIterationDump(path);
+    }
+
+    /**
+     * Returns true if the file is an iteration dump (see exportIterationData).
+     */
+    public static boolean isIterationDump(String path) {
+        return path.toLowerCase().endsWith(".mbi");
+    }
+
+    /**
+     * This method builds the image in horizontal bands and writes every band to
+     * the file as soon as it has been calculated, so only one band of the image is
+     * in memory at a time. PNG and PPM files and iteration dumps (see
+     * canExportInBands) are written this way, all other formats are built
+     * completely and written by exportImage. The Mandelbrot object itself is not
+     * built afterwards.
+     * 
+     * @param path       export path
+     * @param onProgress called with the percentage of written rows
+     * @param onFinish   called when the file has been written
+     * @param onError    called with the cause if the export has failed
+     */
+    public void buildAndExport(final String path, final Executable<Integer> onProgress, final Runnable onFinish,
+            final Executable<Throwable> onError) {
+        if (!canExportInBands(path)) {
+            this.build(onProgress, () -> {
+                try {
+                    this.writeBuiltImage(path);
+                } catch (IOException | OutOfMemoryError err) {
+                    onError.run(err);
+                    return;
                 }
+                onFinish.run();
+            }, onError);
+            return;
+        }
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> buildAndExport(path, onProgress, onFinish, onError));
+            return;
+        }
+        if (isBuilding)
+            return;
 
-            };
-            this.workerThreads[i].execute();
+        CompletableFuture<Void> result = this.export(path, BUILD_EXECUTOR,
+                (percentage) -> SwingUtilities.invokeLater(() -> {
+                    if (isBuilding)
+                        onProgress.run(percentage);
+                }));
+        reportOnSwingThread(result, onProgress, onFinish, onError);
+    }
+
+    /**
+     * Exports the image like buildAndExport, but on the executor and without
+     * Swing (see RenderEngine). onProgress is called on the threads of the export.
+     * The future completes when the file has been written, or with a
+     * CancellationException if the export has been aborted, in which case the
+     * file is deleted. Formats that can not be written in bands are built by
+     * compute and do not report their progress.
+     */
+    public synchronized CompletableFuture<Void> export(String path, Executor executor,
+            Executable<Integer> onProgress) throws OutOfMemoryError {
+        if (!canExportInBands(path))
+            return this.compute(executor).thenAcceptAsync((data) -> {
+                try {
+                    this.writeBuiltImage(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        if (this.isBuilding)
+            throw new IllegalStateException("The area is being built");
+        this.prepareExport();
+        return this.runExport(executor, () -> {
+            if (kernel == Kernel.PERTURBATION) {
+                computeReferenceOrbit();
+                computeSeriesApproximation();
+            }
+            File file = new File(path);
+            boolean isWritten = false;
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                ImageRowWriter writer = null;
+                IterationDump.Writer dump = null;
+                if (isIterationDump(path))
+                    dump = getIterationDump().create(out.getChannel());
+                else
+                    writer = createRowWriter(out, path, fullWidth, fullHeight);
+                if (writeBands(writer, dump, Mandelbrot.this::calculateBandRows, onProgress) && isBuilding) {
+                    long start = System.nanoTime();
+                    if (writer != null)
+                        writer.close();
+                    else
+                        dump.close();
+                    encodeNanos.add(System.nanoTime() - start);
+                    isWritten = true;
+                }
+            } finally {
+                if (!isWritten)
+                    file.delete();
+            }
+        });
+    }
+
+    /**
+     * An export that runs on the executor of runExport
+     */
+    private interface ExportTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs an export that has been prepared by prepareExport on the executor. The
+     * future completes when the task has returned, or with a
+     * CancellationException if the export has been aborted meanwhile.
+     */
+    private CompletableFuture<Void> runExport(Executor executor, ExportTask task) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        this.exportResult = result;
+        executor.execute(() -> {
+            Throwable error = null;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                error = t;
+            }
+            this.currentBand = null;
+            boolean isComplete = this.isBuilding;
+            this.isBuilding = false;
+            if (error != null)
+                result.completeExceptionally(error);
+            else if (!isComplete)
+                result.cancel(false);
+            else
+                result.complete(null);
+        });
+        return result;
+    }
+
+    /**
+     * This method builds the image in bands and writes it to the file on the
+     * calling thread (see buildAndExport). The bands are encoded by the encoder,
+     * a single thread, while the next bands are calculated, and the method
+     * returns as soon as the last band has been calculated. Formats that can not
+     * be written in bands are calculated as a whole and written by exportImage on
+     * the encoder.
+     * 
+     * @param path    export path
+     * @param encoder executor that runs its tasks one after another
+     * @return a future that completes when the file has been written
+     */
+    CompletableFuture<Void> exportInBands(String path, Executor encoder) throws IOException {
+        this.startExport();
+        try {
+            if (!canExportInBands(path)) {
+                this.iterationData = this.calculateBandRows(0, this.areaHeight);
+                this.isBuilt = true;
+                return CompletableFuture.runAsync(() -> this.exportImage(path), encoder);
+            }
+            if (isIterationDump(path)) {
+                try (FileOutputStream out = new FileOutputStream(path)) {
+                    IterationDump.Writer dump = this.getIterationDump().create(out.getChannel());
+                    this.writeBands(null, dump, this::calculateBandRows, (percentage) -> {
+                        // empty
+                    });
+                    dump.close();
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+            QueuedRowWriter writer = new QueuedRowWriter(
+                    this.createRowWriter(new FileOutputStream(path), path, this.fullWidth, this.fullHeight),
+                    this.fullWidth, encoder, 2);
+            try {
+                this.writeBands(writer, null, this::calculateBandRows, (percentage) -> {
+                    // empty
+                });
+            } finally {
+                writer.close();
+            }
+            return writer.getResult().thenRun(() -> this.encodeNanos.add(writer.getEncodeNanos()));
+        } finally {
+            this.isBuilding = false;
+        }
+    }
+
+    /**
+     * This method builds the image in bands and writes it as PNG to the stream on
+     * the calling thread. Unlike buildAndExport it needs neither Swing nor the
+     * event dispatch thread, so several images can be written at the same time.
+     */
+    void writePng(OutputStream out) throws IOException {
+        this.startExport();
+        try {
+            ImageRowWriter writer = new PngWriter(out, this.fullWidth, this.fullHeight, this.pngCompressionLevel);
+            this.writeBands(writer, null, this::calculateBandRows, (percentage) -> {
+                // empty
+            });
+            writer.close();
+        } finally {
+            this.isBuilding = false;
         }
+    }
 
+    /**
+     * Chooses the kernel and resets the statistics of an export. The export
+     * counts as a build until it has finished or has been aborted.
+     */
+    private void prepareExport() {
+        this.startTime = System.currentTimeMillis();
+        this.prepareKernel(this.chooseKernel());
+        this.periodicPixels.reset();
+        this.iteratedPixels.reset();
+        this.encodeNanos.reset();
+        this.isBuilding = true;
     }
 
-    public void abort() {
+    /**
+     * Prepares an export in bands on the calling thread (see exportInBands).
+     */
+    private void startExport() {
+        this.prepareExport();
+        if (this.kernel == Kernel.PERTURBATION) {
+            this.computeReferenceOrbit();
+            this.computeSeriesApproximation();
+        }
+    }
+
+    /**
+     * The iteration counts of the bands of an export: calculated ones (see
+     * calculateBandRows) or the ones of an iteration dump
+     */
+    private interface BandSource {
+        /**
+         * Returns the counts of the given rows of the area or null if the export
+         * has been aborted.
+         */
+        int[] getRows(int firstRow, int rows) throws IOException;
+    }
+
+    /**
+     * This method calculates the given rows of the area as a band (see
+     * calculateBand). It returns null if the export has been aborted.
+     */
+    private int[] calculateBandRows(int firstRow, int rows) {
+        Mandelbrot band = new Mandelbrot(this, 0, firstRow, this.areaWidth, rows);
+        this.currentBand = band;
+        if (!this.isBuilding || !band.calculateBand())
+            return null;
+        this.iteratedPixels.add(band.getIteratedPixelCount());
+        this.periodicPixels.add(band.getPeriodicPixelCount());
+        return band.iterationData;
+    }
+
+    /**
+     * This method goes through the image band by band, takes the counts of the
+     * area from the source and writes the image to a row writer and/or the counts
+     * to an iteration dump (either may be null). It returns false if the export
+     * has been aborted.
+     */
+    private boolean writeBands(ImageRowWriter writer, IterationDump.Writer dump, BandSource source,
+            Executable<Integer> onProgress) throws IOException {
+        int bandHeight = Math.max(1, Math.min(this.areaHeight, BAND_PIXELS / Math.max(1, this.areaWidth)));
+        int[] rgb = writer != null ? new int[this.fullWidth * bandHeight] : null;
+        ColorMap colors = writer != null ? this.getColorMap(null) : null;
+        int lastPercentage = -1;
+        int rows;
+        for (int y = 0; y < this.fullHeight; y += rows) {
+            rows = Math.min(bandHeight, this.fullHeight - y);
+            // rows outside of the area are only background, the area is split at
+            // its top and bottom border
+            if (y < this.offsetY)
+                rows = Math.min(rows, this.offsetY - y);
+            else if (y < this.offsetY + this.areaHeight)
+                rows = Math.min(rows, this.offsetY + this.areaHeight - y);
+            boolean isInArea = y >= this.offsetY && y < this.offsetY + this.areaHeight;
+            int[] counts = null;
+            if (isInArea && (counts = source.getRows(y - this.offsetY, rows)) == null)
+                return false;
+
+            if (writer != null) {
+                this.fillBackground(rgb, y, rows);
+                if (isInArea)
+                    for (int by = 0; by < rows; by++)
+                        for (int bx = 0; bx < this.areaWidth; bx++)
+                            rgb[by * this.fullWidth + this.offsetX + bx] = colors
+                                    .getColor(counts[by * this.areaWidth + bx]);
+            }
+            long start = System.nanoTime();
+            if (dump != null && isInArea)
+                dump.writeRows(counts, 0, rows);
+            if (writer != null)
+                writer.writeRows(rgb, 0, rows);
+            // a queued writer only copies the rows here and may wait for its encoder,
+            // whose time is counted when it has finished (see exportInBands)
+            if (!(writer instanceof QueuedRowWriter))
+                this.encodeNanos.add(System.nanoTime() - start);
+            int percentage = (int) ((long) (y + rows) * 100 / this.fullHeight);
+            if (percentage != lastPercentage)
+                onProgress.run(percentage);
+            lastPercentage = percentage;
+        }
+        return true;
+    }
+
+    /**
+     * Fills the given rows of the image (starting at row y) with the background.
+     */
+    private void fillBackground(int[] rgb, int y, int rows) {
+        int s = 7; // size of the squares of the pattern (see getBackgroundPattern)
+        for (int r = 0; r < rows; r++) {
+            int row = r * this.fullWidth;
+            if (!this.useBackgroundPattern) {
+                Arrays.fill(rgb, row, row + this.fullWidth, this.backgroundColor);
+                continue;
+            }
+            for (int x = 0; x < this.fullWidth; x++)
+                rgb[row + x] = ((x / s) % 2 == ((y + r) / s) % 2) ? this.patternColor1 : this.patternColor2;
+        }
+    }
+
+    /**
+     * This method calculates all pixels of a band (see buildAndExport) on the
+     * calling thread and the pool, taking the pixels that are in the tile cache
+     * from there. The band is built by rectangle subdivision if it is enabled. It
+     * returns false if the calculation has been aborted.
+     */
+    private boolean calculateBand() {
+        this.iterationData = new int[this.areaWidth * this.areaHeight];
+        this.isBuilding = true;
+        TileCache.Grid cacheGrid = this.getCacheGrid();
+        this.hasUnknownPixels = cacheGrid != null || this.useRectangleSubdivision;
+        if (this.hasUnknownPixels)
+            Arrays.fill(this.iterationData, -1);
+        if (cacheGrid != null)
+            this.tileCache.load(cacheGrid, this.iterationData, this.areaWidth, this.areaHeight);
+        if (this.useRectangleSubdivision) {
+            POOL.invoke(new SubdivisionTask(0, 0, this.areaWidth, this.areaHeight, (pixels) -> {
+            }));
+        } else {
+            int tileSize = Math.max(1, this.tileSize);
+            int tilesX = (this.areaWidth + tileSize - 1) / tileSize;
+            int tilesY = (this.areaHeight + tileSize - 1) / tileSize;
+            POOL.invoke(new TileTask(0, tilesX * tilesY, tilesX, tileSize, 1, (pixels) -> {
+            }));
+        }
+        if (cacheGrid != null && this.isBuilding)
+            this.tileCache.store(cacheGrid, this.iterationData, this.areaWidth, this.areaHeight);
+        boolean isComplete = this.isBuilding;
         this.isBuilding = false;
-        if (this.workerThreads == null)
+        return isComplete;
+    }
+
+    /**
+     * This method exports the area as a pyramid of tiles for web viewers. The top
+     * level shows the area in the size of this object, every level below it with
+     * half the resolution of the next one, down to level 0 where the area fits
+     * into a single tile. Tile (x, y) of level z is written to z/x/y.png in the
+     * directory, and pyramid.json describes the levels. The tiles are calculated
+     * in parallel. Tiles that already exist are skipped, so an interrupted export
+     * is continued by exporting the same area to the same directory again.
+     * 
+     * @param directory  export directory
+     * @param onProgress called with the percentage of finished tiles
+     * @param onFinish   called when all tiles have been written
+     * @param onError    called with the cause if the export has failed
+     */
+    public void exportPyramid(final String directory, final Executable<Integer> onProgress, final Runnable onFinish,
+            final Executable<Throwable> onError) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> exportPyramid(directory, onProgress, onFinish, onError));
+            return;
+        }
+        if (isBuilding)
             return;
-        for (int i = 0; i < this.NUMTHREADS; i++) {
-            if (this.workerThreads[i] != null && !this.workerThreads[i].isDone()) {
-                this.hasBeenAborted = true;
+
+        CompletableFuture<Void> result = this.exportPyramid(directory, BUILD_EXECUTOR,
+                (percentage) -> SwingUtilities.invokeLater(() -> {
+                    if (isBuilding)
+                        onProgress.run(percentage);
+                }));
+        reportOnSwingThread(result, onProgress, onFinish, onError);
+    }
+
+    /**
+     * Exports the pyramid like exportPyramid, but on the executor and without
+     * Swing. onProgress is called on the threads of the pool. The future
+     * completes when all tiles have been written, or with a CancellationException
+     * if the export has been aborted.
+     */
+    public synchronized CompletableFuture<Void> exportPyramid(String directory, Executor executor,
+            Executable<Integer> onProgress) {
+        if (this.isBuilding)
+            throw new IllegalStateException("The area is being built");
+        this.prepareExport();
+        return this.runExport(executor, () -> this.writePyramid(Paths.get(directory), onProgress));
+    }
+
+    /**
+     * Returns the highest level of a pyramid of this area (see exportPyramid).
+     */
+    public int getPyramidLevels() {
+        int level = 0;
+        while ((Math.max(this.areaWidth, this.areaHeight) - 1 >> level) >= PYRAMID_TILE_SIZE)
+            level++;
+        return level;
+    }
+
+    private void writePyramid(Path directory, Executable<Integer> onProgress) throws IOException {
+        int maxLevel = this.getPyramidLevels();
+        Files.createDirectories(directory);
+
+        // the descriptor of an existing pyramid must match, otherwise its tiles
+        // would be mixed with the new ones
+        StringBuilder levels = new StringBuilder();
+        int tiles = 0;
+        for (int z = 0; z <= maxLevel; z++) {
+            int width = (int) Math.ceil(this.areaWidth / Math.pow(2, maxLevel - z));
+            int height = (int) Math.ceil(this.areaHeight / Math.pow(2, maxLevel - z));
+            int columns = (width + PYRAMID_TILE_SIZE - 1) / PYRAMID_TILE_SIZE;
+            int rows = (height + PYRAMID_TILE_SIZE - 1) / PYRAMID_TILE_SIZE;
+            tiles += columns * rows;
+            levels.append(z == 0 ? "" : ",\n").append("    { \"level\": " + z + ", \"width\": " + width
+                    + ", \"height\": " + height + ", \"columns\": " + columns + ", \"rows\": " + rows + " }");
+        }
+        MathContext mc = this.getMathContext();
+        String descriptor = "{\n" //
+                + "  \"format\": \"png\",\n" //
+                + "  \"tileSize\": " + PYRAMID_TILE_SIZE + ",\n" //
+                + "  \"minLevel\": 0,\n" //
+                + "  \"maxLevel\": " + maxLevel + ",\n" //
+                + "  \"width\": " + this.areaWidth + ",\n" //
+                + "  \"height\": " + this.areaHeight + ",\n" //
+                + "  \"levels\": [\n" + levels + "\n  ],\n" //
+                + "  \"centerRe\": \"" + this.centerRe.round(mc).toPlainString() + "\",\n" //
+                + "  \"centerIm\": \"" + this.centerIm.round(mc).toPlainString() + "\",\n" //
+                + "  \"rangeRe\": " + this.rangeRe + ",\n" //
+                + "  \"rangeIm\": " + this.rangeIm + ",\n" //
+                + "  \"nMax\": " + this.nMax + ",\n" //
+                + "  \"innerColor\": " + this.innerColor + ",\n" //
+                + "  \"colorGradient\": " + Arrays.toString(this.colorGradient) //
+                + (this.paletteMode != PaletteMode.LINEAR ? ",\n  \"paletteMode\": \"" //
+                        + this.paletteMode.name().toLowerCase() + "\",\n  \"paletteLength\": " + this.paletteLength
+                        : "")
+                + "\n}\n";
+        Path descriptorPath = directory.resolve("pyramid.json");
+        if (Files.exists(descriptorPath)) {
+            if (!new String(Files.readAllBytes(descriptorPath), StandardCharsets.UTF_8).equals(descriptor))
+                throw new IOException("The directory " + directory + " contains a different pyramid");
+        } else {
+            Files.write(descriptorPath, descriptor.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // all levels share the colors and the histogram of the area
+        ColorMap colors = this.getColorMap(null);
+        int numTiles = tiles;
+        AtomicInteger finishedTiles = new AtomicInteger();
+        Executable<Integer> onTileDone = (count) -> {
+            int finished = finishedTiles.addAndGet(count);
+            onProgress.run((int) ((long) finished * 100 / numTiles));
+        };
+        for (int z = 0; z <= maxLevel && this.isBuilding; z++) {
+            Mandelbrot level = this.createPyramidLevel(maxLevel - z);
+            if (!this.isBuilding)
+                return;
+            int columns = level.areaWidth / PYRAMID_TILE_SIZE;
+            int rows = level.areaHeight / PYRAMID_TILE_SIZE;
+            POOL.invoke(new PyramidTask(level, colors, directory.resolve(Integer.toString(z)), 0, columns * rows,
+                    columns, onTileDone));
+        }
+    }
+
+    /**
+     * This method creates the level of a pyramid whose pixels are 2^k times as
+     * large as the ones of this area. It has the same top left corner and is
+     * extended to whole tiles. Its kernel is prepared for the calculation.
+     */
+    private Mandelbrot createPyramidLevel(int k) {
+        double scale = Math.pow(2, k);
+        int columns = (int) Math.ceil(Math.ceil(this.areaWidth / scale) / PYRAMID_TILE_SIZE);
+        int rows = (int) Math.ceil(Math.ceil(this.areaHeight / scale) / PYRAMID_TILE_SIZE);
+        int width = columns * PYRAMID_TILE_SIZE;
+        int height = rows * PYRAMID_TILE_SIZE;
+        Mandelbrot level = new Mandelbrot(this, 0, 0, width, height);
+        level.gridWidth = width;
+        if (this.isDeepZoom()) {
+            double s = this.rangeRe / (double) this.areaWidth * scale;
+            level.setArea(this.centerRe.add(new BigDecimal((s * width - this.rangeRe) / 2.0D)),
+                    this.centerIm.subtract(new BigDecimal((s * height - this.rangeIm) / 2.0D)), s * width,
+                    s * height);
+        } else {
+            double s = Math.abs(this.maxRe - this.minRe) / (double) this.areaWidth * scale;
+            level.setArea(this.minRe, this.maxIm - s * height, this.minRe + s * width, this.maxIm);
+        }
+        level.prepareKernel(level.chooseKernel());
+        if (level.kernel == Kernel.PERTURBATION) {
+            level.isBuilding = true;
+            level.computeReferenceOrbit();
+            level.computeSeriesApproximation();
+            level.isBuilding = false;
+        }
+        return level;
+    }
+
+    /**
+     * A task that calculates and writes a range of tiles of a level of a pyramid.
+     * Like TileTask it splits ranges with more than one tile in halves.
+     */
+    private class PyramidTask extends RecursiveAction {
+        private final Mandelbrot level;
+        private final ColorMap colors;
+        private final Path directory;
+        private final int firstTile;
+        private final int lastTile; // exclusive
+        private final int columns;
+        private final Executable<Integer> onTileDone;
+
+        PyramidTask(Mandelbrot level, ColorMap colors, Path directory, int firstTile, int lastTile, int columns,
+                Executable<Integer> onTileDone) {
+            this.level = level;
+            this.colors = colors;
+            this.directory = directory;
+            this.firstTile = firstTile;
+            this.lastTile = lastTile;
+            this.columns = columns;
+            this.onTileDone = onTileDone;
+        }
+
+        @Override
+        protected void compute() {
+            if (!isBuilding || this.firstTile >= this.lastTile)
+                return;
+            if (this.lastTile - this.firstTile > 1) {
+                int mid = (this.firstTile + this.lastTile) >>> 1;
+                invokeAll(new PyramidTask(this.level, this.colors, this.directory, this.firstTile, mid, this.columns,
+                        this.onTileDone),
+                        new PyramidTask(this.level, this.colors, this.directory, mid, this.lastTile, this.columns,
+                                this.onTileDone));
+                return;
+            }
+
+            int x = this.firstTile % this.columns;
+            int y = this.firstTile / this.columns;
+            Path file = this.directory.resolve(x + "/" + y + ".png");
+            if (!Files.exists(file)) {
+                Mandelbrot tile = new Mandelbrot(this.level, x * PYRAMID_TILE_SIZE, y * PYRAMID_TILE_SIZE,
+                        PYRAMID_TILE_SIZE, PYRAMID_TILE_SIZE);
+                if (!tile.calculateBand())
+                    return;
+                iteratedPixels.add(tile.getIteratedPixelCount());
+                periodicPixels.add(tile.getPeriodicPixelCount());
+                int[] rgb = new int[tile.iterationData.length];
+                for (int i = 0; i < rgb.length; i++)
+                    rgb[i] = this.colors.getColor(tile.iterationData[i]);
+                // the tile is written under another name first, so that an
+                // interrupted export never leaves an incomplete tile behind
+                Path tmp = file.resolveSibling(y + ".png.tmp");
                 try {
-                    this.workerThreads[i].cancel(true);
-                } catch (Exception var9) {
+                    Files.createDirectories(file.getParent());
+                    long start = System.nanoTime();
+                    try (ImageRowWriter writer = new PngWriter(Files.newOutputStream(tmp), PYRAMID_TILE_SIZE,
+                            PYRAMID_TILE_SIZE, pngCompressionLevel)) {
+                        writer.writeRows(rgb, 0, PYRAMID_TILE_SIZE);
+                    }
+                    encodeNanos.add(System.nanoTime() - start);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            this.onTileDone.run(1);
+        }
+    }
+
+    /**
+     * This method calculates the pixels of the rectangle from (xBegin, yBegin) to
+     * (xEnd, yEnd) (exclusive) that are not known yet, i.e. that have neither been
+     * copied from a seed nor calculated by a previous pass. Only every stride-th
+     * pixel of every stride-th row is calculated. It returns the number of
+     * calculated pixels.
+     */
+    private int calculateUnknown(int xBegin, int yBegin, int xEnd, int yEnd, int stride) {
+        if (stride == 1 && this.useLaneKernel && this.kernel == Kernel.DOUBLE)
+            return this.iterateRect(xBegin, yBegin, xEnd, yEnd);
+        int count = 0;
+        for (int py = yBegin + Math.floorMod(-yBegin, stride); py < yEnd; py += stride) {
+            if (!this.isBuilding)
+                return count;
+            for (int px = xBegin + Math.floorMod(-xBegin, stride); px < xEnd; px += stride) {
+                int i = py * this.areaWidth + px;
+                if (this.iterationData[i] < 0) {
+                    this.iterationData[i] = this.iteratePixel(px, py);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the image of the last finished pass of a progressive build, in which
+     * every calculated pixel also covers the pixels of its block that have not been
+     * calculated yet, or the enlarged seed (see seedFrom) or null if there is none.
+     */
+    public BufferedImage getPreviewImage() {
+        return this.previewImage;
+    }
+
+    private BufferedImage createPreviewImage(int stride) {
+        ColorMap colors = this.getColorMap(this.iterationData);
+        int[] rgb = new int[this.areaWidth * this.areaHeight];
+        for (int py = 0; py < this.areaHeight; py++) {
+            int row = (py - py % stride) * this.areaWidth;
+            for (int px = 0; px < this.areaWidth; px++) {
+                int n = this.iterationData[py * this.areaWidth + px];
+                if (n < 0)
+                    n = this.iterationData[row + px - px % stride];
+                rgb[py * this.areaWidth + px] = n < 0 ? this.backgroundColor : colors.getColor(n);
+            }
+        }
+        BufferedImage image = new BufferedImage(this.areaWidth, this.areaHeight, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, this.areaWidth, this.areaHeight, rgb, 0, this.areaWidth);
+        return image;
+    }
+
+    /**
+     * A task that calculates a range of tiles of the area. Ranges with more than
+     * one tile are split in halves so that idle threads of the pool can steal the
+     * other half. The results are written directly into the iteration data.
+     */
+    private class TileTask extends RecursiveAction {
+        private final int firstTile;
+        private final int lastTile; // exclusive
+        private final int tilesX;
+        private final int tileSize;
+        private final int stride; // Only every stride-th pixel of every stride-th row is calculated
+        private final Executable<Integer> onTileDone;
+
+        TileTask(int firstTile, int lastTile, int tilesX, int tileSize, int stride, Executable<Integer> onTileDone) {
+            this.firstTile = firstTile;
+            this.lastTile = lastTile;
+            this.tilesX = tilesX;
+            this.tileSize = tileSize;
+            this.stride = stride;
+            this.onTileDone = onTileDone;
+        }
+
+        @Override
+        protected void compute() {
+            if (!isBuilding || this.firstTile >= this.lastTile)
+                return;
+            if (this.lastTile - this.firstTile > 1) {
+                int mid = (this.firstTile + this.lastTile) >>> 1;
+                invokeAll(new TileTask(this.firstTile, mid, this.tilesX, this.tileSize, this.stride, this.onTileDone),
+                        new TileTask(mid, this.lastTile, this.tilesX, this.tileSize, this.stride, this.onTileDone));
+                return;
+            }
+
+            int xBegin = (this.firstTile % this.tilesX) * this.tileSize;
+            int yBegin = (this.firstTile / this.tilesX) * this.tileSize;
+            int xEnd = Math.min(xBegin + this.tileSize, areaWidth);
+            int yEnd = Math.min(yBegin + this.tileSize, areaHeight);
+
+            if (resumingFrom != null) {
+                resumeRect(resumingFrom, xBegin, yBegin, xEnd, yEnd);
+            } else if (hasUnknownPixels) {
+                this.onTileDone.run(calculateUnknown(xBegin, yBegin, xEnd, yEnd, this.stride));
+                return;
+            } else if (useLaneKernel && kernel == Kernel.DOUBLE) {
+                iterateRect(xBegin, yBegin, xEnd, yEnd);
+            } else {
+                for (int py = yBegin; py < yEnd; py++) {
+                    if (!isBuilding)
+                        return;
+                    for (int px = xBegin; px < xEnd; px++)
+                        iterationData[py * areaWidth + px] = iteratePixel(px, py);
+                }
+            }
+            this.onTileDone.run((xEnd - xBegin) * (yEnd - yBegin));
+        }
+    }
+
+    /**
+     * A task that builds a rectangle of the area with the Mariani-Silver
+     * algorithm. Since the mandelbrot set is connected, all pixels inside a
+     * rectangle have the same number of iterations if all pixels on its border
+     * have. Otherwise the rectangle is split in halves which are built in
+     * parallel. Pixels that have not been calculated yet are marked with -1.
+     */
+    private class SubdivisionTask extends RecursiveAction {
+        private static final int MIN_SIZE = 6;
+
+        private final int xBegin;
+        private final int yBegin;
+        private final int xEnd; // exclusive
+        private final int yEnd; // exclusive
+        private final Executable<Integer> onPixelsDone;
+
+        SubdivisionTask(int xBegin, int yBegin, int xEnd, int yEnd, Executable<Integer> onPixelsDone) {
+            this.xBegin = xBegin;
+            this.yBegin = yBegin;
+            this.xEnd = xEnd;
+            this.yEnd = yEnd;
+            this.onPixelsDone = onPixelsDone;
+        }
+
+        @Override
+        protected void compute() {
+            if (!isBuilding)
+                return;
+            int width = this.xEnd - this.xBegin;
+            int height = this.yEnd - this.yBegin;
+
+            if (width <= MIN_SIZE || height <= MIN_SIZE) {
+                this.onPixelsDone.run(this.calculate(this.xBegin, this.yBegin, this.xEnd, this.yEnd));
+                return;
+            }
+
+            // calculate the border
+            int calculated = 0;
+            calculated += this.calculate(this.xBegin, this.yBegin, this.xEnd, this.yBegin + 1);
+            calculated += this.calculate(this.xBegin, this.yEnd - 1, this.xEnd, this.yEnd);
+            calculated += this.calculate(this.xBegin, this.yBegin + 1, this.xBegin + 1, this.yEnd - 1);
+            calculated += this.calculate(this.xEnd - 1, this.yBegin + 1, this.xEnd, this.yEnd - 1);
+            this.onPixelsDone.run(calculated);
+
+            int n = iterationData[this.yBegin * areaWidth + this.xBegin];
+            boolean isUniform = true;
+            for (int px = this.xBegin; px < this.xEnd && isUniform; px++)
+                isUniform = iterationData[this.yBegin * areaWidth + px] == n
+                        && iterationData[(this.yEnd - 1) * areaWidth + px] == n;
+            for (int py = this.yBegin; py < this.yEnd && isUniform; py++)
+                isUniform = iterationData[py * areaWidth + this.xBegin] == n
+                        && iterationData[py * areaWidth + this.xEnd - 1] == n;
+
+            if (isUniform) {
+                for (int py = this.yBegin + 1; py < this.yEnd - 1; py++)
+                    Arrays.fill(iterationData, py * areaWidth + this.xBegin + 1, py * areaWidth + this.xEnd - 1, n);
+                this.onPixelsDone.run((width - 2) * (height - 2));
+                return;
+            }
+
+            // split along the longer side; the two halves share the middle line
+            if (width >= height) {
+                int mid = this.xBegin + width / 2;
+                invokeAll(new SubdivisionTask(this.xBegin, this.yBegin, mid + 1, this.yEnd, this.onPixelsDone),
+                        new SubdivisionTask(mid, this.yBegin, this.xEnd, this.yEnd, this.onPixelsDone));
+            } else {
+                int mid = this.yBegin + height / 2;
+                invokeAll(new SubdivisionTask(this.xBegin, this.yBegin, this.xEnd, mid + 1, this.onPixelsDone),
+                        new SubdivisionTask(this.xBegin, mid, this.xEnd, this.yEnd, this.onPixelsDone));
+            }
+        }
+
+        /**
+         * Calculates all pixels of the given rectangle that have not been calculated
+         * yet and returns their number.
+         */
+        private int calculate(int xBegin, int yBegin, int xEnd, int yEnd) {
+            int count = 0;
+            for (int py = yBegin; py < yEnd; py++) {
+                for (int px = xBegin; px < xEnd; px++) {
+                    int i = py * areaWidth + px;
+                    if (iterationData[i] < 0) {
+                        iterationData[i] = iteratePixel(px, py);
+                        count++;
+                    }
                 }
             }
+            return count;
         }
     }
 
+    @Override
+    public void abort() {
+        this.isBuilding = false;
+        Mandelbrot band = this.currentBand;
+        if (band != null)
+            band.isBuilding = false;
+        // a build of compute completes its future when its tasks have stopped
+        if (this.buildResult != null && !this.buildResult.isDone())
+            this.hasBeenAborted = true;
+        if (this.exportResult != null && !this.exportResult.isDone())
+            this.hasBeenAborted = true;
+    }
+
     private long countTotalIterations() {
         long count = 0L;
 
@@ -642,10 +2396,503 @@ public class Mandelbrot {
         return count;
     }
 
-    private int iterate(double cRe, double cIm) {
+    /**
+     * This method checks analytically whether c lies in the main cardioid or in
+     * the period-2 bulb of the mandelbrot set. The sequence of those points never
+     * diverges, so they would always run all nMax iterations.
+     */
+    private static boolean isInCardioidOrBulb(double cRe, double cIm) {
+        double sqrCIm = cIm * cIm;
+        // period-2 bulb: circle around -1 with radius 1/4
+        if ((cRe + 1.0D) * (cRe + 1.0D) + sqrCIm < 0.0625D)
+            return true;
+        // main cardioid
+        double re = cRe - 0.25D;
+        double q = re * re + sqrCIm;
+        return q * (q + re) < 0.25D * sqrCIm;
+    }
+
+    /**
+     * The sequence of a single point c (see queryPoint)
+     */
+    public static final class PointInfo {
+        public final int iterations; // Like the iteration data of a build: nMax if the sequence has not escaped
+        public final boolean hasEscaped;
+        // z_1, z_2, ... up to the escape or the stop by a check (null if the orbit was not requested)
+        public final double[] orbitRe;
+        public final double[] orbitIm;
+
+        private PointInfo(int iterations, boolean hasEscaped, double[] orbitRe, double[] orbitIm) {
+            this.iterations = iterations;
+            this.hasEscaped = hasEscaped;
+            this.orbitRe = orbitRe;
+            this.orbitIm = orbitIm;
+        }
+    }
+
+    /**
+     * The orbit of queryPoint. The arrays grow with the orbit, so a long orbit
+     * only takes the memory of its actual length.
+     */
+    private static final class Orbit {
+        double[] re = new double[16];
+        double[] im = new double[16];
+        int length;
+
+        void add(double zRe, double zIm) {
+            if (this.length == this.re.length) {
+                this.re = Arrays.copyOf(this.re, this.length * 2);
+                this.im = Arrays.copyOf(this.im, this.length * 2);
+            }
+            this.re[this.length] = zRe;
+            this.im[this.length] = zIm;
+            this.length++;
+        }
+    }
+
+    /**
+     * This method iterates the sequence of a single point on the calling thread,
+     * without a palette, a pool or the other machinery of a build. Points in the
+     * main cardioid or the period-2 bulb and sequences that repeat exactly are
+     * stopped early, so the orbit of such a point is empty or ends with its first
+     * repetition.
+     */
+    public static PointInfo queryPoint(double cRe, double cIm, int nMax, boolean withOrbit) {
+        Orbit orbit = withOrbit ? new Orbit() : null;
+        int n = iteratePoint(cRe, cIm, nMax, orbit);
+        if (orbit == null)
+            return new PointInfo(n, n < nMax, null, null);
+        return new PointInfo(n, n < nMax, Arrays.copyOf(orbit.re, orbit.length),
+                Arrays.copyOf(orbit.im, orbit.length));
+    }
+
+    /**
+     * Returns the iterations of many points (see queryPoint), calculated one after
+     * another on the calling thread.
+     */
+    public static int[] queryPoints(double[] cRe, double[] cIm, int nMax) {
+        if (cRe.length != cIm.length)
+            throw new IllegalArgumentException("The arrays of the real and imaginary parts differ in length");
+        int[] iterations = new int[cRe.length];
+        for (int i = 0; i < iterations.length; i++)
+            iterations[i] = iteratePoint(cRe[i], cIm[i], nMax, null);
+        return iterations;
+    }
+
+    /**
+     * Iterates the sequence of c like iterate with the default checks, but
+     * without an object. The values of the sequence are added to the orbit unless
+     * it is null.
+     */
+    private static int iteratePoint(double cRe, double cIm, int nMax, Orbit orbit) {
+        if (isInCardioidOrBulb(cRe, cIm))
+            return nMax;
         double zRe = 0.0D;
         double zIm = 0.0D;
-        for (int n = 0; n < this.nMax; ++n) {
+        double savedRe = zRe;
+        double savedIm = zIm;
+        int window = 8;
+        int steps = 0;
+        for (int n = 0; n < nMax; n++) {
+            double re = zRe * zRe - zIm * zIm + cRe;
+            zIm = 2.0D * zRe * zIm + cIm;
+            zRe = re;
+            if (orbit != null)
+                orbit.add(zRe, zIm);
+            if (zRe * zRe + zIm * zIm > 4.0D)
+                return n;
+            if (zRe == savedRe && zIm == savedIm)
+                return nMax;
+            if (++steps == window) {
+                steps = 0;
+                window <<= 1;
+                savedRe = zRe;
+                savedIm = zIm;
+            }
+        }
+        return nMax;
+    }
+
+    private int iteratePixel(int px, int py) {
+        if (this.kernel == Kernel.PERTURBATION) {
+            this.iteratedPixels.increment();
+            return iteratePerturbed(px, py, py * this.areaWidth + px);
+        }
+        if (this.kernel == Kernel.DOUBLE_DOUBLE) {
+            this.iteratedPixels.increment();
+            return iterateDoubleDouble(px, py);
+        }
+        double s = Math.abs(this.maxRe - this.minRe) / (double) this.gridWidth;
+        double cRe = this.minRe + s * (double) (px + this.firstColumn);
+        double cIm = this.maxIm - s * (double) (py + this.firstRow);
+        this.iteratedPixels.increment();
+        return iterate(cRe, cIm, 0.0D, 0.0D, 0, py * this.areaWidth + px);
+    }
+
+    /**
+     * Lets the next build copy the pixels it has in common with an already built
+     * Mandelbrot object, e.g. the previous view after the area has been moved or
+     * zoomed in. Pixels are only copied if both objects have the same nMax, the
+     * pixel spacing of the previous object is an integer multiple of this one
+     * (1 for a move, 2 for a zoom by factor 2) and the pixels lie on the same grid.
+     * The build also provides the enlarged previous view as first preview image.
+     */
+    public void seedFrom(Mandelbrot previous) {
+        if (previous != this)
+            this.seed = previous;
+    }
+
+    /**
+     * This method returns the position of the pixel (0, 0) of the seed in the
+     * pixels of this area and the ratio of the pixel spacings, or null if no
+     * pixels of the seed can be used.
+     */
+    private int[] getSeedOffset(Mandelbrot seed) {
+        if (!seed.isBuilt || seed.nMax != this.nMax || seed.kernel != this.kernel)
+            return null;
+        double s = Math.abs(this.maxRe - this.minRe) / (double) this.areaWidth;
+        double seedS = Math.abs(seed.maxRe - seed.minRe) / (double) seed.areaWidth;
+        if (this.kernel != Kernel.DOUBLE) {
+            s = this.rangeRe / (double) this.areaWidth;
+            seedS = seed.rangeRe / (double) seed.areaWidth;
+        }
+        long ratio = Math.round(seedS / s);
+        if (ratio < 1 || ratio > 64 || Math.abs(seedS / s - ratio) > ratio * 1E-9)
+            return null;
+
+        double offsetX;
+        double offsetY;
+        if (this.kernel == Kernel.DOUBLE) {
+            offsetX = (seed.minRe - this.minRe) / s;
+            offsetY = (this.maxIm - seed.maxIm) / s;
+        } else {
+            // the sides are not precise enough, the offset follows from the centers
+            offsetX = seed.centerRe.subtract(this.centerRe).doubleValue() / s
+                    - (seed.rangeRe - this.rangeRe) / (2.0D * s);
+            offsetY = this.centerIm.subtract(seed.centerIm).doubleValue() / s
+                    - (seed.rangeIm - this.rangeIm) / (2.0D * s);
+        }
+        long x = Math.round(offsetX);
+        long y = Math.round(offsetY);
+        if (Math.abs(offsetX - x) > 1E-3 || Math.abs(offsetY - y) > 1E-3)
+            return null;
+        if (x >= this.areaWidth || y >= this.areaHeight || x + seed.areaWidth * ratio <= 0
+                || y + seed.areaHeight * ratio <= 0)
+            return null;
+        return new int[] { (int) x, (int) y, (int) ratio };
+    }
+
+    /**
+     * This method copies the pixels of a seed whose pixel (0, 0) is the pixel
+     * (offsetX, offsetY) of this area and whose pixel spacing is ratio times larger
+     * to the coinciding pixels of this area. It returns the number of copied
+     * pixels.
+     */
+    private int copySeed(Mandelbrot seed, int offsetX, int offsetY, int ratio) {
+        if (ratio == 1) {
+            int xBegin = Math.max(0, offsetX);
+            int xEnd = Math.min(this.areaWidth, seed.areaWidth + offsetX);
+            int yBegin = Math.max(0, offsetY);
+            int yEnd = Math.min(this.areaHeight, seed.areaHeight + offsetY);
+            if (xEnd <= xBegin || yEnd <= yBegin)
+                return 0;
+            for (int py = yBegin; py < yEnd; py++)
+                System.arraycopy(seed.iterationData, (py - offsetY) * seed.areaWidth + xBegin - offsetX,
+                        this.iterationData, py * this.areaWidth + xBegin, xEnd - xBegin);
+            return (xEnd - xBegin) * (yEnd - yBegin);
+        }
+        int count = 0;
+        for (int py = offsetY + Math.max(0, Math.floorDiv(-offsetY + ratio - 1, ratio)) * ratio; py < this.areaHeight
+                && py < offsetY + seed.areaHeight * ratio; py += ratio) {
+            int qy = (py - offsetY) / ratio;
+            for (int px = offsetX + Math.max(0, Math.floorDiv(-offsetX + ratio - 1, ratio)) * ratio; px < this.areaWidth
+                    && px < offsetX + seed.areaWidth * ratio; px += ratio) {
+                this.iterationData[py * this.areaWidth + px] = seed.iterationData[qy * seed.areaWidth
+                        + (px - offsetX) / ratio];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method creates a preview image from a seed by enlarging its pixels by
+     * the ratio of the pixel spacings.
+     */
+    private BufferedImage createSeedPreviewImage(Mandelbrot seed, int offsetX, int offsetY, int ratio) {
+        ColorMap colors = this.getColorMap(seed.iterationData);
+        int[] rgb = new int[this.areaWidth * this.areaHeight];
+        for (int py = 0; py < this.areaHeight; py++) {
+            int qy = Math.floorDiv(py - offsetY, ratio);
+            for (int px = 0; px < this.areaWidth; px++) {
+                int qx = Math.floorDiv(px - offsetX, ratio);
+                boolean isInSeed = qx >= 0 && qx < seed.areaWidth && qy >= 0 && qy < seed.areaHeight;
+                rgb[py * this.areaWidth + px] = isInSeed
+                        ? colors.getColor(seed.iterationData[qy * seed.areaWidth + qx])
+                        : this.backgroundColor;
+            }
+        }
+        BufferedImage image = new BufferedImage(this.areaWidth, this.areaHeight, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, this.areaWidth, this.areaHeight, rgb, 0, this.areaWidth);
+        return image;
+    }
+
+    /**
+     * This method sets up the orbit state for a build. Without a source all
+     * sequences are started from the beginning. With a source the build either
+     * only clips the counts of the source to a smaller nMax and shares its state,
+     * or it continues the sequences of the source on a copy of its state.
+     */
+    private void prepareOrbitState(Mandelbrot source) {
+        this.orbitRe = null;
+        this.orbitIm = null;
+        this.orbitRef = null;
+        this.stateData = null;
+        if (!this.keepOrbitState)
+            return;
+        if (source != null && this.nMax <= source.stateNMax) {
+            this.orbitRe = source.orbitRe;
+            this.orbitIm = source.orbitIm;
+            this.orbitRef = source.orbitRef;
+            this.stateData = source.stateData;
+            this.stateNMax = source.stateNMax;
+            return;
+        }
+        int length = this.iterationData.length;
+        if (source != null) {
+            this.orbitRe = Arrays.copyOf(source.orbitRe, length);
+            this.orbitIm = Arrays.copyOf(source.orbitIm, length);
+            this.orbitRef = Arrays.copyOf(source.orbitRef, length);
+        } else {
+            this.orbitRe = new double[length];
+            this.orbitIm = new double[length];
+            this.orbitRef = new int[length];
+            Arrays.fill(this.orbitRef, -1);
+        }
+        this.stateData = this.iterationData;
+        this.stateNMax = this.nMax;
+    }
+
+    /**
+     * This method calculates the rectangle from (xBegin, yBegin) to (xEnd, yEnd)
+     * (exclusive) from the iteration data and orbit state of a source with a
+     * different nMax. Pixels that diverged before the nMax of the source keep
+     * their count, all others continue their sequence.
+     */
+    private void resumeRect(Mandelbrot source, int xBegin, int yBegin, int xEnd, int yEnd) {
+        double s = Math.abs(this.maxRe - this.minRe) / (double) this.areaWidth;
+        double sDeep = this.rangeRe / (double) this.areaWidth;
+        int oldNMax = source.stateNMax;
+        for (int py = yBegin; py < yEnd; py++) {
+            if (!this.isBuilding)
+                return;
+            for (int px = xBegin; px < xEnd; px++) {
+                int i = py * this.areaWidth + px;
+                int count = source.stateData[i];
+                if (count < oldNMax || this.nMax <= oldNMax) {
+                    this.iterationData[i] = Math.min(count, this.nMax);
+                } else if (Double.isNaN(this.orbitRe[i])) {
+                    this.iterationData[i] = this.nMax;
+                } else if (this.orbitRef[i] < 0
+                        || (this.kernel == Kernel.PERTURBATION && this.seriesSkip >= oldNMax)) {
+                    // no state or the series approximation skips more than the state saves
+                    this.iterationData[i] = this.iteratePixel(px, py);
+                } else if (this.kernel == Kernel.PERTURBATION) {
+                    this.iteratedPixels.increment();
+                    double dcRe = -this.rangeRe / 2.0D + sDeep * (double) px;
+                    double dcIm = this.rangeIm / 2.0D - sDeep * (double) py;
+                    this.iterationData[i] = this.perturb(dcRe, dcIm, this.orbitRe[i], this.orbitIm[i],
+                            this.orbitRef[i], oldNMax, i);
+                } else {
+                    this.iteratedPixels.increment();
+                    double cRe = this.minRe + s * (double) px;
+                    double cIm = this.maxIm - s * (double) py;
+                    this.iterationData[i] = this.iterate(cRe, cIm, this.orbitRe[i], this.orbitIm[i], oldNMax, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * This method stores the state of a pixel that has not diverged within nMax
+     * iterations, so that its sequence can be continued when nMax is increased.
+     * A state of NaN marks pixels that are known to lie in the set.
+     * 
+     * @param ref position in the reference orbit (perturbation only)
+     */
+    private void keepOrbit(int index, double zRe, double zIm, int ref) {
+        if (this.orbitRe == null || index < 0)
+            return;
+        this.orbitRe[index] = zRe;
+        this.orbitIm[index] = zIm;
+        this.orbitRef[index] = ref;
+    }
+
+    /**
+     * A pixel whose sequence is iterated by iterateRect. The lanes never leave
+     * iterateRect, so the JIT compiler can keep their fields in registers.
+     */
+    private final class Lane {
+        int index = -1; // pixel of the lane, -1 if the lane is empty
+        double cRe, cIm, zRe, zIm, savedRe, savedIm;
+        int n, window, steps;
+        int result; // count of the pixel when it is finished, -1 before
+        int periodic; // pixels of the lane stopped by the periodicity check
+        int known; // pixels that were skipped because they are known
+
+        void start(int index, double cRe, double cIm) {
+            this.index = index;
+            this.cRe = cRe;
+            this.cIm = cIm;
+            this.zRe = this.zIm = this.savedRe = this.savedIm = 0.0D;
+            this.n = 0;
+            this.window = 8;
+            this.steps = 0;
+            this.result = -1;
+        }
+
+        /**
+         * Calculates the next value of the sequence like iterate and returns true if
+         * the pixel is finished. An empty lane is never finished.
+         */
+        boolean step(int nMax, boolean checkPeriodicity, double tol) {
+            if (this.index < 0)
+                return false;
+            double sqrZRe = this.zRe * this.zRe - this.zIm * this.zIm;
+            double sqrZIm = this.zRe * this.zIm + this.zIm * this.zRe;
+            double zRe = sqrZRe + this.cRe;
+            double zIm = sqrZIm + this.cIm;
+            this.zRe = zRe;
+            this.zIm = zIm;
+            if (zRe * zRe + zIm * zIm > ESCAPE_RADIUS * ESCAPE_RADIUS) {
+                this.result = this.n;
+                return true;
+            }
+            if (checkPeriodicity) {
+                if (Math.abs(zRe - this.savedRe) <= tol && Math.abs(zIm - this.savedIm) <= tol) {
+                    this.result = nMax;
+                    this.periodic++;
+                    return true;
+                }
+                if (++this.steps == this.window) {
+                    this.steps = 0;
+                    this.window <<= 1;
+                    this.savedRe = zRe;
+                    this.savedIm = zIm;
+                }
+            }
+            if (++this.n >= nMax) {
+                this.result = nMax;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * This method calculates all pixels of the rectangle from (xBegin, yBegin) to
+     * (xEnd, yEnd) (exclusive) and writes them to the iteration data. It gives
+     * exactly the same results as iterate, but it advances the sequences of four
+     * pixels (lanes) at a time. The sequences do not depend on each other, so the
+     * CPU can overlap their multiplications instead of waiting for the result of
+     * the previous iteration. Whenever a lane is finished, it is refilled with the
+     * next pixel of the rectangle; at the end of the rectangle the remaining lanes
+     * run until they are finished.
+     */
+    private int iterateRect(int xBegin, int yBegin, int xEnd, int yEnd) {
+        int last = (xEnd - xBegin) * (yEnd - yBegin);
+        int nMax = this.nMax;
+        boolean checkPeriodicity = this.usePeriodicityCheck;
+        double tol = this.periodicityTolerance;
+        Lane lane0 = new Lane();
+        Lane lane1 = new Lane();
+        Lane lane2 = new Lane();
+        Lane lane3 = new Lane();
+        int next = 0;
+        while (true) {
+            next = this.fillLane(lane0, next, xBegin, yBegin, xEnd, yEnd);
+            next = this.fillLane(lane1, next, xBegin, yBegin, xEnd, yEnd);
+            next = this.fillLane(lane2, next, xBegin, yBegin, xEnd, yEnd);
+            next = this.fillLane(lane3, next, xBegin, yBegin, xEnd, yEnd);
+            if (lane0.index < 0 && lane1.index < 0 && lane2.index < 0 && lane3.index < 0)
+                break;
+            // the lanes are stepped together until one of them has finished (| does
+            // not short-circuit)
+            boolean isFinished;
+            do {
+                isFinished = lane0.step(nMax, checkPeriodicity, tol) | lane1.step(nMax, checkPeriodicity, tol)
+                        | lane2.step(nMax, checkPeriodicity, tol) | lane3.step(nMax, checkPeriodicity, tol);
+            } while (!isFinished);
+        }
+        int known = lane0.known + lane1.known + lane2.known + lane3.known;
+        this.periodicPixels.add(lane0.periodic + lane1.periodic + lane2.periodic + lane3.periodic);
+        this.iteratedPixels.add(last - known);
+        return last - known;
+    }
+
+    /**
+     * This method writes the count of a finished lane of iterateRect and starts
+     * the lane with the next pixel of the rectangle that has to be iterated.
+     * Pixels in the cardioid or the bulb are written directly. It returns the
+     * position of the next pixel in the rectangle.
+     */
+    private int fillLane(Lane lane, int next, int xBegin, int yBegin, int xEnd, int yEnd) {
+        int nMax = this.nMax;
+        if (lane.index >= 0) {
+            if (lane.result < 0)
+                return next;
+            this.iterationData[lane.index] = lane.result;
+            if (lane.result == nMax)
+                keepOrbit(lane.index, lane.n >= nMax ? lane.zRe : Double.NaN, lane.n >= nMax ? lane.zIm : Double.NaN,
+                        0);
+            lane.index = -1;
+        }
+        double s = Math.abs(this.maxRe - this.minRe) / (double) this.gridWidth;
+        int width = xEnd - xBegin;
+        int last = width * (yEnd - yBegin);
+        while (next < last) {
+            int px = xBegin + next % width;
+            int py = yBegin + next / width;
+            next++;
+            int i = py * this.areaWidth + px;
+            if (this.hasUnknownPixels && this.iterationData[i] >= 0) {
+                lane.known++;
+                continue;
+            }
+            double cRe = this.minRe + s * (double) (px + this.firstColumn);
+            double cIm = this.maxIm - s * (double) (py + this.firstRow);
+            if (nMax == 0 || (this.useCardioidCheck && isInCardioidOrBulb(cRe, cIm))) {
+                this.iterationData[i] = nMax;
+                if (nMax > 0)
+                    keepOrbit(i, Double.NaN, Double.NaN, 0);
+                continue;
+            }
+            lane.start(i, cRe, cIm);
+            break;
+        }
+        return next;
+    }
+
+    /**
+     * This method iterates the sequence of c, starting with z after n0 iterations.
+     * If the pixel index is given (>= 0) and the orbit state is kept, the state of
+     * a sequence that does not diverge is stored.
+     */
+    private int iterate(double cRe, double cIm, double zRe, double zIm, int n0, int index) {
+        if (this.useCardioidCheck && isInCardioidOrBulb(cRe, cIm)) {
+            if (this.nMax > 0)
+                keepOrbit(index, Double.NaN, Double.NaN, 0);
+            return this.nMax;
+        }
+        // Brent's cycle detection: z is compared with a saved value which is replaced
+        // after windows of doubling length, so cycles of any period are found.
+        double savedRe = zRe;
+        double savedIm = zIm;
+        int window = 8;
+        int steps = 0;
+        double tol = this.periodicityTolerance;
+        boolean checkPeriodicity = this.usePeriodicityCheck;
+        for (int n = n0; n < this.nMax; ++n) {
             double sqrZRe = zRe * zRe - zIm * zIm;
             double sqrZIm = zRe * zIm + zIm * zRe;
             zRe = sqrZRe + cRe;
@@ -653,10 +2900,272 @@ public class Mandelbrot {
             if (zRe * zRe + zIm * zIm > ESCAPE_RADIUS * ESCAPE_RADIUS) {
                 return n;
             }
+            if (checkPeriodicity) {
+                if (Math.abs(zRe - savedRe) <= tol && Math.abs(zIm - savedIm) <= tol) {
+                    this.periodicPixels.increment();
+                    keepOrbit(index, Double.NaN, Double.NaN, 0);
+                    return this.nMax;
+                }
+                if (++steps == window) {
+                    steps = 0;
+                    window <<= 1;
+                    savedRe = zRe;
+                    savedIm = zIm;
+                }
+            }
+        }
+        if (n0 < this.nMax)
+            keepOrbit(index, zRe, zIm, 0);
+        return this.nMax;
+    }
+
+    /**
+     * This method decides how the pixels of the area are calculated: with doubles
+     * as long as they can distinguish the pixels, then by perturbation.
+     */
+    private Kernel chooseKernel() {
+        return this.isDeepZoom() ? Kernel.PERTURBATION : Kernel.DOUBLE;
+    }
+
+    private void prepareKernel(Kernel kernel) {
+        this.kernel = kernel;
+        if (kernel == Kernel.DOUBLE_DOUBLE) {
+            this.ddCenterRe = DoubleDouble.valueOf(this.centerRe);
+            this.ddCenterIm = DoubleDouble.valueOf(this.centerIm);
+        }
+    }
+
+    /**
+     * This method calculates a pixel with double-double numbers. The offset of the
+     * pixel to the center is small enough to be exact as a double, only the sum
+     * with the center needs the additional precision.
+     */
+    private int iterateDoubleDouble(int px, int py) {
+        double s = this.rangeRe / (double) this.gridWidth;
+        DoubleDouble cRe = this.ddCenterRe.add(-this.rangeRe / 2.0D + s * (double) (px + this.firstColumn));
+        DoubleDouble cIm = this.ddCenterIm.add(this.rangeIm / 2.0D - s * (double) (py + this.firstRow));
+        DoubleDouble zRe = DoubleDouble.ZERO;
+        DoubleDouble zIm = DoubleDouble.ZERO;
+        for (int n = 0; n < this.nMax; ++n) {
+            DoubleDouble sqrZRe = zRe.square().subtract(zIm.square());
+            DoubleDouble sqrZIm = zRe.multiply(zIm).twice();
+            zRe = sqrZRe.add(cRe);
+            zIm = sqrZIm.add(cIm);
+            if (zRe.hi * zRe.hi + zIm.hi * zIm.hi > ESCAPE_RADIUS * ESCAPE_RADIUS) {
+                return n;
+            }
         }
         return this.nMax;
     }
 
+    /**
+     * This method calculates the area once with each kernel on the calling thread
+     * and prints the time per iteration. The results of kernels that are not
+     * precise enough for the area are wrong, only their speed is of interest.
+     */
+    public void benchmarkKernels() {
+        this.iterationData = new int[this.areaWidth * this.areaHeight];
+        // only the double kernel has these shortcuts, they would distort the
+        // comparison
+        boolean useCardioidCheck = this.useCardioidCheck;
+        boolean usePeriodicityCheck = this.usePeriodicityCheck;
+        this.useCardioidCheck = false;
+        this.usePeriodicityCheck = false;
+        this.isBuilding = true;
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT compiler
+            if (round == 1)
+                System.out.println("> kernel benchmark (" + this.areaWidth + "x" + this.areaHeight + ", nMax "
+                        + this.nMax + "):");
+            for (Kernel kernel : Kernel.values()) {
+                this.prepareKernel(kernel);
+                long time = System.nanoTime();
+                if (kernel == Kernel.PERTURBATION) {
+                    this.computeReferenceOrbit();
+                    this.computeSeriesApproximation();
+                }
+                for (int py = 0; py < this.areaHeight; py++)
+                    for (int px = 0; px < this.areaWidth; px++)
+                        this.iterationData[py * this.areaWidth + px] = this.iteratePixel(px, py);
+                time = System.nanoTime() - time;
+                long iterations = this.countTotalIterations();
+                if (round == 1)
+                    System.out.println("   - " + kernel.name().toLowerCase() + ": " + time / 1000000L + "ms, "
+                            + iterations + " iterations, "
+                            + (double) Math.round((double) time / (double) Math.max(1L, iterations) * 100.0D) / 100.0D
+                            + "ns per iteration");
+            }
+        }
+        this.isBuilding = false;
+        this.useCardioidCheck = useCardioidCheck;
+        this.usePeriodicityCheck = usePeriodicityCheck;
+        this.prepareKernel(this.chooseKernel());
+        System.out.println("   - chosen for this area: " + this.kernel.name().toLowerCase());
+    }
+
+    /**
+     * This method calculates the sequence of the center of the area with as many
+     * digits as are needed to distinguish the pixels. The sequence ends when it
+     * diverges or after nMax iterations.
+     */
+    private void computeReferenceOrbit() {
+        MathContext mc = this.getMathContext();
+        BigDecimal cRe = this.centerRe.round(mc);
+        BigDecimal cIm = this.centerIm.round(mc);
+        BigDecimal zRe = BigDecimal.ZERO;
+        BigDecimal zIm = BigDecimal.ZERO;
+        double[] refRe = new double[Math.min(this.nMax + 1, 1024)];
+        double[] refIm = new double[refRe.length];
+        int length = 1;
+        for (int n = 0; n < this.nMax && this.isBuilding; n++) {
+            BigDecimal re = zRe.multiply(zRe, mc).subtract(zIm.multiply(zIm, mc), mc).add(cRe, mc);
+            zIm = TWO.multiply(zRe, mc).multiply(zIm, mc).add(cIm, mc);
+            zRe = re;
+            if (length == refRe.length) {
+                int newLength = (int) Math.min((long) this.nMax + 1, 2L * length);
+                refRe = Arrays.copyOf(refRe, newLength);
+                refIm = Arrays.copyOf(refIm, newLength);
+            }
+            double dRe = zRe.doubleValue();
+            double dIm = zIm.doubleValue();
+            refRe[length] = dRe;
+            refIm[length] = dIm;
+            length++;
+            if (dRe * dRe + dIm * dIm > 4.0D)
+                break;
+        }
+        this.refRe = refRe;
+        this.refIm = refIm;
+        this.refLength = length;
+    }
+
+    /**
+     * This method finds the number of iterations that can be skipped for all pixels
+     * by approximating the offset to the reference orbit with a polynomial of
+     * degree three in the offset dc of the pixel to the center. Its coefficients
+     * follow from the iteration dz' = 2 Z dz + dz^2 + dc:
+     * A' = 2 Z A + 1, B' = 2 Z B + A^2, C' = 2 Z C + 2 A B.
+     * The skipping stops as soon as the cubic term of the pixel farthest from the
+     * center is no longer small against the distance of two pixels.
+     */
+    private void computeSeriesApproximation() {
+        double radius = Math.hypot(this.rangeRe / 2.0D, this.rangeIm / 2.0D);
+        double s = this.rangeRe / (double) this.areaWidth;
+        this.seriesRadius = radius;
+        this.seriesSkip = 0;
+        this.seriesARe = this.seriesAIm = this.seriesBRe = this.seriesBIm = this.seriesCRe = this.seriesCIm = 0.0D;
+        if (!this.useSeriesApproximation)
+            return;
+
+        // coefficients multiplied by radius, radius^2 and radius^3
+        double aRe = 0.0D, aIm = 0.0D, bRe = 0.0D, bIm = 0.0D, cRe = 0.0D, cIm = 0.0D;
+        for (int n = 0; n < this.refLength - 2; n++) {
+            double zRe2 = 2.0D * this.refRe[n];
+            double zIm2 = 2.0D * this.refIm[n];
+            double naRe = zRe2 * aRe - zIm2 * aIm + radius;
+            double naIm = zRe2 * aIm + zIm2 * aRe;
+            double nbRe = zRe2 * bRe - zIm2 * bIm + aRe * aRe - aIm * aIm;
+            double nbIm = zRe2 * bIm + zIm2 * bRe + 2.0D * aRe * aIm;
+            double ncRe = zRe2 * cRe - zIm2 * cIm + 2.0D * (aRe * bRe - aIm * bIm);
+            double ncIm = zRe2 * cIm + zIm2 * cRe + 2.0D * (aRe * bIm + aIm * bRe);
+
+            double absA = Math.hypot(naRe, naIm);
+            double absB = Math.hypot(nbRe, nbIm);
+            double absC = Math.hypot(ncRe, ncIm);
+            // the error must be far below the distance of two pixels after the skipped
+            // iterations, and no pixel may be able to diverge during them
+            if (!(absC <= this.seriesTolerance * absA * (s / radius)))
+                break;
+            double zRe = this.refRe[n + 1];
+            double zIm = this.refIm[n + 1];
+            if (Math.hypot(zRe, zIm) + absA + absB + absC > 2.0D)
+                break;
+
+            aRe = naRe;
+            aIm = naIm;
+            bRe = nbRe;
+            bIm = nbIm;
+            cRe = ncRe;
+            cIm = ncIm;
+            this.seriesSkip = n + 1;
+        }
+        this.seriesARe = aRe;
+        this.seriesAIm = aIm;
+        this.seriesBRe = bRe;
+        this.seriesBIm = bIm;
+        this.seriesCRe = cRe;
+        this.seriesCIm = cIm;
+    }
+
+    /**
+     * This method calculates a pixel by perturbation: instead of the sequence of
+     * the pixel itself only its (small) difference to the reference orbit is
+     * iterated in doubles. When the difference becomes larger than the sequence
+     * itself or the reference orbit ends, the difference is rebased onto the
+     * start of the reference orbit, which avoids glitches without a second
+     * reference.
+     */
+    private int iteratePerturbed(int px, int py, int index) {
+        double s = this.rangeRe / (double) this.gridWidth;
+        double dcRe = -this.rangeRe / 2.0D + s * (double) (px + this.firstColumn);
+        double dcIm = this.rangeIm / 2.0D - s * (double) (py + this.firstRow);
+        double dzRe = 0.0D;
+        double dzIm = 0.0D;
+        int skip = this.seriesSkip;
+        if (skip > 0) {
+            // evaluate the series approximation with Horner's method
+            double uRe = dcRe / this.seriesRadius;
+            double uIm = dcIm / this.seriesRadius;
+            double re = this.seriesCRe * uRe - this.seriesCIm * uIm + this.seriesBRe;
+            double im = this.seriesCRe * uIm + this.seriesCIm * uRe + this.seriesBIm;
+            double t = re * uRe - im * uIm + this.seriesARe;
+            im = re * uIm + im * uRe + this.seriesAIm;
+            re = t;
+            dzRe = re * uRe - im * uIm;
+            dzIm = re * uIm + im * uRe;
+        }
+        return this.perturb(dcRe, dcIm, dzRe, dzIm, skip, skip, index);
+    }
+
+    /**
+     * This method continues the perturbation of a pixel with the offset dz to the
+     * reference orbit at position m after n0 iterations.
+     */
+    private int perturb(double dcRe, double dcIm, double dzRe, double dzIm, int m, int n0, int index) {
+        double[] refRe = this.refRe;
+        double[] refIm = this.refIm;
+        int last = this.refLength - 1;
+        for (int n = n0; n < this.nMax; n++) {
+            if (m == last) {
+                // the reference orbit has ended, continue relative to its start. This is
+                // done only when the iteration goes on, so that a kept orbit state still
+                // refers to the reference orbit, which is longer for a larger nMax.
+                dzRe = refRe[m] + dzRe;
+                dzIm = refIm[m] + dzIm;
+                m = 0;
+            }
+            double aRe = 2.0D * refRe[m] + dzRe;
+            double aIm = 2.0D * refIm[m] + dzIm;
+            double re = aRe * dzRe - aIm * dzIm + dcRe;
+            dzIm = aRe * dzIm + aIm * dzRe + dcIm;
+            dzRe = re;
+            m++;
+            double zRe = refRe[m] + dzRe;
+            double zIm = refIm[m] + dzIm;
+            double sqrAbs = zRe * zRe + zIm * zIm;
+            if (sqrAbs > 4.0D)
+                return n;
+            if (sqrAbs < dzRe * dzRe + dzIm * dzIm) {
+                dzRe = zRe;
+                dzIm = zIm;
+                m = 0;
+            }
+        }
+        if (n0 < this.nMax)
+            keepOrbit(index, dzRe, dzIm, m);
+        return this.nMax;
+    }
+
     public void exportYAML(String path) throws FileNotFoundException, UnsupportedEncodingException {
         PrintWriter writer = new PrintWriter(path, "UTF-8");
         writer.println("# Area of the complex plane given by two numbers 'min' and 'max'");
@@ -664,6 +3173,13 @@ public class Mandelbrot {
         writer.println("minIm: " + this.minIm);
         writer.println("maxRe: " + this.maxRe);
         writer.println("maxIm: " + this.maxIm);
+        if (this.isDeepZoom()) {
+            writer.println("# Exact center and size of the area (deep zoom; takes precedence over 'min' and 'max')");
+            writer.println("centerRe: '" + this.centerRe.round(this.getMathContext()).toPlainString() + "'");
+            writer.println("centerIm: '" + this.centerIm.round(this.getMathContext()).toPlainString() + "'");
+            writer.println("rangeRe: " + this.rangeRe);
+            writer.println("rangeIm: " + this.rangeIm);
+        }
         writer.println("# Max amount of iterations (iteration depth)");
         writer.println("nMax: " + this.nMax);
         writer.println("# Color (hexadecimal representation) for points inside of the mandelbrot set");
@@ -673,6 +3189,10 @@ public class Mandelbrot {
         writer.println("# > Last color for 0 iterations reached");
         writer.println("# At least one color must be specified");
         writer.println("colorGradient: " + Arrays.toString(this.colorGradient));
+        writer.println("# Mapping of the iterations onto the color gradient: linear, cyclic (repeats every");
+        writer.println("# 'paletteLength' iterations), log, sqrt or histogram (equal share of pixels per color)");
+        writer.println("paletteMode: " + this.paletteMode.name().toLowerCase());
+        writer.println("paletteLength: " + this.paletteLength);
         writer.close();
     }
 
@@ -685,15 +3205,128 @@ public class Mandelbrot {
                 shouldOpen = true;
             if (args[0].indexOf('v') != -1)
                 isVerbose = true;
+            if (args[0].indexOf('s') != -1)
+                useSubdivision = true;
+            if (args[0].indexOf('b') != -1)
+                shouldBenchmark = true;
+            if (args[0].indexOf('p') != -1)
+                shouldExportPyramid = true;
+            if (args[0].indexOf('r') != -1)
+                shouldRecolor = true;
+            if (args[0].indexOf('m') != -1)
+                shouldRunBatch = true;
+            if (args[0].indexOf('w') != -1)
+                shouldServe = true;
         }
 
         String configFile = args[k];
+        if (shouldServe) {
+            // -w <port> [threads] [queue length]: renders images and tiles for HTTP
+            // clients until the process is stopped (see RenderServer)
+            try {
+                TileStore tileStore = TileStore.openFromSystemProperty();
+                TileCache tileCache = new TileCache(Runtime.getRuntime().maxMemory() / 8, tileStore);
+                RenderServer server = new RenderServer(Integer.parseInt(configFile),
+                        args.length > k + 1 ? Integer.parseInt(args[k + 1]) : 2,
+                        args.length > k + 2 ? Integer.parseInt(args[k + 2]) : 16, tileCache);
+                server.start();
+                System.out.println("> listening on port " + server.getPort());
+            } catch (IOException e) {
+                System.out.println("The server could not be started: " + e.getMessage());
+                System.exit(-1);
+            }
+            return;
+        }
+        if (shouldRunBatch) {
+            // -m <manifest or directory> <width> <height> [output directory]: renders
+            // many configurations in this JVM (see BatchRenderer)
+            int failed;
+            TileStore tileStore = null;
+            try {
+                tileStore = TileStore.openFromSystemProperty();
+                TileCache tileCache = tileStore != null
+                        ? new TileCache(Runtime.getRuntime().maxMemory() / 8, tileStore)
+                        : null;
+                failed = new BatchRenderer(Paths.get(configFile), Integer.parseInt(args[k + 1]),
+                        Integer.parseInt(args[k + 2]), args.length > k + 3 ? Paths.get(args[k + 3]) : null,
+                        tileCache, useSubdivision).run();
+            } catch (IOException e) {
+                System.out.println("The batch could not be read: " + e.getMessage());
+                failed = -1;
+            } finally {
+                if (tileStore != null) {
+                    try {
+                        tileStore.close();
+                    } catch (IOException err) {
+                        err.printStackTrace();
+                    }
+                }
+            }
+            if (failed != 0)
+                System.exit(-1);
+            return;
+        }
+        if (shouldRecolor) {
+            // -r <config file> <iteration dump> <output path> [compression]: colors an
+            // iteration dump (.mbi) with the colors of the configuration
+            String dumpPath = args[k + 1];
+            String outputPath = args[k + 2];
+            try {
+                Mandelbrot mand = Mandelbrot.fromYAMLFile(configFile, 1, 1);
+                if (args.length > k + 3) {
+                    int compression = Integer.parseInt(args[k + 3]);
+                    mand.pngCompressionLevel = Math.max(0, Math.min(9, compression));
+                    mand.jpegQuality = Math.max(0, Math.min(100, compression)) / 100.0F;
+                }
+                mand.recolorIterationDump(dumpPath, outputPath);
+                if (isVerbose) {
+                    System.out.println("> iteration dump: " + dumpPath);
+                    System.out.println("> colors (" + configFile + "): ");
+                    System.out.println("   - inner color: " + mand.innerColor);
+                    System.out.println("   - color gradient: " + Arrays.toString(mand.colorGradient));
+                    System.out.println("> recolor time: "
+                            + (double) (System.currentTimeMillis() - mand.startTime) / 1000.0D + "s (encoding: "
+                            + (double) mand.getEncodeTime() / 1000.0D + "s)");
+                }
+                System.out.println("> output: " + outputPath);
+                if (shouldOpen)
+                    Desktop.getDesktop().open(new File(outputPath));
+            } catch (FileNotFoundException | YAMLException e) {
+                System.out.println(
+                        "The configuration file '" + configFile + "' was not found or the YAML data was corrupt");
+                System.exit(-1);
+            } catch (IOException e) {
+                System.out.println("The iteration dump could not be recolored: " + e.getMessage());
+                System.exit(-1);
+            }
+            return;
+        }
         int fullWidth = Integer.parseInt(args[k + 1]);
         int fullHeight = Integer.parseInt(args[k + 2]);
         String outputPath = args[k + 3];
         try {
 
             Mandelbrot mand = Mandelbrot.fromYAMLFile(configFile, fullWidth, fullHeight);
+            mand.useRectangleSubdivision = useSubdivision;
+            // The format of the image is given by the extension of the output path
+            // (.png, .ppm or JPEG otherwise). An optional argument after it sets the
+            // compression level of PNG images (0 to 9) or the quality of JPEG images
+            // (0 to 100).
+            if (args.length > k + 4) {
+                int compression = Integer.parseInt(args[k + 4]);
+                if (outputPath.toLowerCase().endsWith(".png") || shouldExportPyramid)
+                    mand.pngCompressionLevel = Math.max(0, Math.min(9, compression));
+                else
+                    mand.jpegQuality = Math.max(0, Math.min(100, compression)) / 100.0F;
+            }
+            // tiles that have been built before are taken from the tile store
+            TileStore tileStore = TileStore.openFromSystemProperty();
+            if (tileStore != null)
+                mand.tileCache = new TileCache(Runtime.getRuntime().maxMemory() / 8, tileStore);
+            if (shouldBenchmark) {
+                mand.benchmarkKernels();
+                return;
+            }
 
             try {
                 mand.exportYAML(configFile);
@@ -702,7 +3335,7 @@ public class Mandelbrot {
                 e.printStackTrace();
             }
 
-            mand.build((percentage) -> { // On progress update
+            Executable<Integer> onProgress = (percentage) -> { // On progress update
 
                 String progressStr = "";
                 while (progressStr.length() < PROGRESS_BAR_WIDTH * (percentage / 100.0D))
@@ -713,7 +3346,8 @@ public class Mandelbrot {
                 str += percentage != 100.0D ? "   [in progress] \r" : "   [done]  ";
                 System.out.print(str);
 
-            }, () -> { // On finish
+            };
+            Runnable onFinish = () -> { // On finish
 
                 // Print a full progress bar
                 String str = "";
@@ -725,6 +3359,8 @@ public class Mandelbrot {
                     System.out.println("       ");
                     System.out.println();
                     System.out.println("> output file: " + outputPath);
+                    if (shouldExportPyramid)
+                        System.out.println("> pyramid levels: 0 to " + mand.getPyramidLevels());
                     System.out.println("> image size: " + mand.fullWidth + "x" + mand.fullHeight);
                     System.out.println("> size of the mandelbrot area: " + mand.areaWidth + "x" + mand.areaHeight);
                     System.out.println("> configurations (" + configFile + "): ");
@@ -738,15 +3374,35 @@ public class Mandelbrot {
                     System.out.println("> build information: ");
                     System.out.println("   - build time: "
                             + (double) (System.currentTimeMillis() - mand.startTime) / 1000.0D + "s");
-                    long numIterationsTotal = mand.countTotalIterations();
-                    System.out.println("   - total number of iterations: " + numIterationsTotal);
-                    System.out.println("   - average number of iterations per pixel: " + (double) Math
-                            .round((double) numIterationsTotal / (double) mand.iterationData.length * 100.0D) / 100.0D);
+                    System.out.println("   - of which encoding the image: " + (double) mand.getEncodeTime() / 1000.0D
+                            + "s");
+                    if (mand.iterationData != null) {
+                        long numIterationsTotal = mand.countTotalIterations();
+                        System.out.println("   - total number of iterations: " + numIterationsTotal);
+                        System.out.println("   - average number of iterations per pixel: " + (double) Math.round(
+                                (double) numIterationsTotal / (double) mand.iterationData.length * 100.0D) / 100.0D);
+                    }
+                    System.out.println("   - pixels stopped early by the periodicity check: "
+                            + mand.getPeriodicPixelCount());
+                    System.out.println("   - iterated pixels: " + mand.getIteratedPixelCount()
+                            + (mand.useRectangleSubdivision ? " (rectangle subdivision)" : ""));
+                    if (mand.kernel == Kernel.PERTURBATION)
+                        System.out.println("   - iterations per pixel skipped by the series approximation: "
+                                + mand.getSeriesSkippedIterations());
+                    if (tileStore != null)
+                        System.out.println("   - tiles in the tile store: " + tileStore.getTileCount()
+                                + (tileStore.isWritable() ? "" : " (read-only)"));
                 } else {
                     System.out.println("> output: " + outputPath);
                 }
 
-                mand.exportImage(outputPath);
+                if (tileStore != null) {
+                    try {
+                        tileStore.close();
+                    } catch (IOException err) {
+                        err.printStackTrace();
+                    }
+                }
 
                 if (shouldOpen) {
                     try {
@@ -755,11 +3411,39 @@ public class Mandelbrot {
                     }
                 }
                 ///////////////////////
-            });
+            };
+
+            // With the flag p the output path is a directory that receives a pyramid
+            // of tiles, otherwise PNG and PPM images are built and written in bands
+            // (see buildAndExport)
+            if (shouldExportPyramid) {
+                mand.exportPyramid(outputPath, BUILD_EXECUTOR, onProgress).join();
+            } else if (!canExportInBands(outputPath)) {
+                // other formats are built as a whole, the main thread polls the progress
+                CompletableFuture<int[]> result = mand.compute(BUILD_EXECUTOR);
+                while (true) {
+                    try {
+                        result.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        onProgress.run(mand.getProgress());
+                    }
+                }
+                mand.exportImage(outputPath);
+            } else {
+                // the export runs on daemon threads, the main thread waits for it
+                mand.export(outputPath, BUILD_EXECUTOR, onProgress).join();
+            }
+            onFinish.run();
         } catch (FileNotFoundException | YAMLException e) {
             System.out
                     .println("The configuration file '" + configFile + "' was not found or the YAML data was corrupt");
             System.exit(-1);
+        } catch (CompletionException e) {
+            System.out.println("The image could not be exported: " + e.getCause());
+            System.exit(-1);
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
         }
 
     }
@@ -0,0 +1,283 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an image as PNG (8 bit RGB). The rows are filtered as soon as they are
+ * written, only the previous row is kept in memory. For every row the filter
+ * with the smallest sum of absolute differences is chosen (the heuristic
+ * recommended by the PNG specification).
+ * 
+ * The filtered rows are compressed in blocks of BLOCK_SIZE bytes in parallel
+ * (like pigz does): every block is deflated on its own with the end of the
+ * previous block as dictionary and ends with a sync flush, so that the blocks
+ * simply follow each other in the zlib stream.
+ */
+public class PngWriter implements ImageRowWriter {
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int BLOCK_SIZE = 1 << 17;
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+    // Blocks that may be compressed at the same time before the writer waits for
+    // the oldest one
+    private static final int MAX_PENDING_BLOCKS = 2 * POOL.getParallelism() + 1;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final int level;
+    private byte[] previous; // Unfiltered previous row
+    private byte[] current;
+    private final byte[][] filtered = new byte[5][]; // Current row with each filter, led by the filter type
+    private int rowsWritten = 0;
+
+    private final ChunkOutputStream data = new ChunkOutputStream();
+    private final Adler32 checksum = new Adler32(); // Checksum of the uncompressed data
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength = 0;
+    private byte[] previousBlock = null;
+    private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level compression level from 0 (fastest) to 9 (smallest file) or
+     *              Deflater.DEFAULT_COMPRESSION
+     */
+    public PngWriter(OutputStream out, int width, int height, int level) throws IOException {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("The compression level must be between 0 and 9");
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.width = width;
+        this.height = height;
+        this.level = level;
+        this.previous = new byte[3 * width];
+        this.current = new byte[3 * width];
+        for (int f = 0; f < this.filtered.length; f++) {
+            this.filtered[f] = new byte[3 * width + 1];
+            this.filtered[f][0] = (byte) f;
+        }
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = 2; // color type RGB
+        this.writeChunk("IHDR", header, header.length);
+
+        // zlib header: deflate with a 32 KB window and the matching level flag
+        int flags = level == Deflater.DEFAULT_COMPRESSION || level == 6 ? 0x9C
+                : level < 2 ? 0x01 : level < 6 ? 0x5E : 0xDA;
+        this.data.write(new byte[] { 0x78, (byte) flags }, 0, 2);
+    }
+
+    @Override
+    public void writeRows(int[] rgb, int offset, int rows) throws IOException {
+        for (int y = 0; y < rows; y++) {
+            if (this.rowsWritten == this.height)
+                throw new IOException("The image has only " + this.height + " rows");
+            int i = offset + y * this.width;
+            for (int x = 0; x < this.width; x++) {
+                int c = rgb[i + x];
+                this.current[3 * x] = (byte) (c >> 16);
+                this.current[3 * x + 1] = (byte) (c >> 8);
+                this.current[3 * x + 2] = (byte) c;
+            }
+            this.append(this.filterRow());
+            byte[] tmp = this.previous;
+            this.previous = this.current;
+            this.current = tmp;
+            this.rowsWritten++;
+        }
+    }
+
+    /**
+     * Applies all five filters to the current row and returns the result with the
+     * smallest sum of absolute values.
+     */
+    private byte[] filterRow() {
+        byte[] cur = this.current;
+        byte[] prev = this.previous;
+        byte[] none = this.filtered[0], sub = this.filtered[1], up = this.filtered[2], avg = this.filtered[3],
+                paeth = this.filtered[4];
+        long[] sums = new long[5];
+        for (int i = 0; i < cur.length; i++) {
+            int x = cur[i] & 0xFF;
+            int a = i >= 3 ? cur[i - 3] & 0xFF : 0;
+            int b = prev[i] & 0xFF;
+            int c = i >= 3 ? prev[i - 3] & 0xFF : 0;
+            none[i + 1] = (byte) x;
+            sub[i + 1] = (byte) (x - a);
+            up[i + 1] = (byte) (x - b);
+            avg[i + 1] = (byte) (x - ((a + b) >> 1));
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            paeth[i + 1] = (byte) (x - (pa <= pb && pa <= pc ? a : pb <= pc ? b : c));
+            sums[0] += Math.abs(none[i + 1]);
+            sums[1] += Math.abs(sub[i + 1]);
+            sums[2] += Math.abs(up[i + 1]);
+            sums[3] += Math.abs(avg[i + 1]);
+            sums[4] += Math.abs(paeth[i + 1]);
+        }
+        int best = 0;
+        for (int f = 1; f < sums.length; f++)
+            if (sums[f] < sums[best])
+                best = f;
+        return this.filtered[best];
+    }
+
+    /**
+     * Appends filtered data to the current block and hands every full block over
+     * to the pool.
+     */
+    private void append(byte[] b) throws IOException {
+        int off = 0;
+        while (off < b.length) {
+            int n = Math.min(b.length - off, BLOCK_SIZE - this.blockLength);
+            System.arraycopy(b, off, this.block, this.blockLength, n);
+            this.blockLength += n;
+            off += n;
+            if (this.blockLength == BLOCK_SIZE) {
+                byte[] input = this.block;
+                byte[] dictionary = this.previousBlock;
+                this.checksum.update(input, 0, BLOCK_SIZE);
+                this.pendingBlocks.add(POOL.submit(() -> this.compress(input, BLOCK_SIZE, dictionary, false)));
+                while (this.pendingBlocks.size() > MAX_PENDING_BLOCKS)
+                    this.writeBlock(this.pendingBlocks.remove());
+                this.previousBlock = input;
+                this.block = new byte[BLOCK_SIZE];
+                this.blockLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Deflates a block without zlib header. The last block finishes the stream,
+     * all others end with a sync flush at a byte boundary.
+     */
+    private byte[] compress(byte[] input, int length, byte[] dictionary, boolean isLast) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            if (dictionary != null)
+                deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            if (isLast) {
+                deflater.finish();
+                while (!deflater.finished())
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeBlock(Future<byte[]> block) throws IOException {
+        try {
+            byte[] compressed = block.get();
+            this.data.write(compressed, 0, compressed.length);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("A block of the image could not be compressed", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.rowsWritten != this.height)
+                throw new IOException("Only " + this.rowsWritten + " of " + this.height + " rows have been written");
+            // the last block is compressed on this thread while the pool finishes
+            // the others
+            this.checksum.update(this.block, 0, this.blockLength);
+            byte[] last = this.compress(this.block, this.blockLength, this.previousBlock, true);
+            while (!this.pendingBlocks.isEmpty())
+                this.writeBlock(this.pendingBlocks.remove());
+            this.data.write(last, 0, last.length);
+            byte[] trailer = new byte[4];
+            writeInt(trailer, 0, (int) this.checksum.getValue());
+            this.data.write(trailer, 0, trailer.length);
+            this.data.flush();
+            this.writeChunk("IEND", new byte[0], 0);
+        } finally {
+            for (Future<byte[]> block : this.pendingBlocks)
+                block.cancel(false);
+            this.out.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        this.out.writeInt(length);
+        this.out.write(typeBytes);
+        this.out.write(data, 0, length);
+        this.out.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] b, int i, int v) {
+        b[i] = (byte) (v >>> 24);
+        b[i + 1] = (byte) (v >>> 16);
+        b[i + 2] = (byte) (v >>> 8);
+        b[i + 3] = (byte) v;
+    }
+
+    /**
+     * Collects the compressed data and writes it in IDAT chunks of up to
+     * CHUNK_SIZE bytes.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE - this.length);
+                System.arraycopy(b, off, this.buffer, this.length, n);
+                this.length += n;
+                off += n;
+                len -= n;
+                if (this.length == CHUNK_SIZE)
+                    this.flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (this.length > 0)
+                writeChunk("IDAT", this.buffer, this.length);
+            this.length = 0;
+        }
+    }
+}
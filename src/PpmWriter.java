@@ -0,0 +1,40 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes an image in the binary PPM format (P6), which stores the pixels
+ * uncompressed.
+ */
+public class PpmWriter implements ImageRowWriter {
+    private final OutputStream out;
+    private final int width;
+    private final byte[] row;
+
+    public PpmWriter(OutputStream out, int width, int height) throws IOException {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.width = width;
+        this.row = new byte[3 * width];
+        this.out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void writeRows(int[] rgb, int offset, int rows) throws IOException {
+        for (int y = 0; y < rows; y++) {
+            int i = offset + y * this.width;
+            for (int x = 0; x < this.width; x++) {
+                int c = rgb[i + x];
+                this.row[3 * x] = (byte) (c >> 16);
+                this.row[3 * x + 1] = (byte) (c >> 8);
+                this.row[3 * x + 2] = (byte) c;
+            }
+            this.out.write(this.row);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A row writer that hands the rows over to another writer on an executor, so
+ * that they are encoded while the caller already calculates the next rows. The
+ * executor must run the tasks in order (a single thread). The rows are copied,
+ * and at most maxPendingWrites calls wait for the executor at a time.
+ *
+ * close only queues the closing of the other writer; getResult completes when
+ * it has been closed.
+ */
+public class QueuedRowWriter implements ImageRowWriter {
+    private final ImageRowWriter writer;
+    private final int width;
+    private final Executor executor;
+    private final Semaphore pendingWrites;
+    private CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+    private long encodeNanos = 0; // Only accessed by the executor
+
+    public QueuedRowWriter(ImageRowWriter writer, int width, Executor executor, int maxPendingWrites) {
+        this.writer = writer;
+        this.width = width;
+        this.executor = executor;
+        this.pendingWrites = new Semaphore(maxPendingWrites);
+    }
+
+    @Override
+    public void writeRows(int[] rgb, int offset, int rows) throws IOException {
+        if (this.result.isCompletedExceptionally())
+            throw new IOException("An earlier row could not be written", this.getCause());
+        int[] copy = Arrays.copyOfRange(rgb, offset, offset + rows * this.width);
+        try {
+            this.pendingWrites.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        this.result = this.result.thenRunAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                this.writer.writeRows(copy, 0, rows);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.encodeNanos += System.nanoTime() - start;
+        }, this.executor);
+        // the permit is also returned if the write is skipped after an error
+        this.result.whenComplete((v, e) -> this.pendingWrites.release());
+    }
+
+    @Override
+    public void close() {
+        this.result = this.result.handleAsync((v, error) -> {
+            long start = System.nanoTime();
+            try {
+                this.writer.close();
+            } catch (IOException e) {
+                if (error == null)
+                    throw new UncheckedIOException(e);
+            }
+            this.encodeNanos += System.nanoTime() - start;
+            if (error != null)
+                throw error instanceof CompletionException ? (CompletionException) error
+                        : new CompletionException(error);
+            return null;
+        }, this.executor);
+    }
+
+    /**
+     * Returns the future that completes when all rows have been written and the
+     * other writer has been closed (see close).
+     */
+    public CompletableFuture<Void> getResult() {
+        return this.result;
+    }
+
+    /**
+     * Returns the time the other writer has spent on the rows in nanoseconds. It
+     * is complete when getResult has completed.
+     */
+    public long getEncodeNanos() {
+        return this.encodeNanos;
+    }
+
+    private Throwable getCause() {
+        try {
+            this.result.join();
+            return null;
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+    }
+}
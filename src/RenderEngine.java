@@ -0,0 +1,28 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Calculates the iteration data of a view without Swing, so that it can be
+ * used by the command line tool and in a headless JVM. The Swing windows use
+ * Mandelbrot.build, which adapts it to the event dispatch thread.
+ */
+public interface RenderEngine {
+
+    /**
+     * Starts the calculation on the executor. The future completes with the
+     * iteration counts of the area row by row, or with a CancellationException if
+     * the calculation has been aborted.
+     */
+    CompletableFuture<int[]> compute(Executor executor);
+
+    /**
+     * Returns the percentage of the calculated pixels. It can be polled from any
+     * thread while the calculation runs.
+     */
+    int getProgress();
+
+    /**
+     * Stops the calculation as soon as possible.
+     */
+    void abort();
+}
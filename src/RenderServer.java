@@ -0,0 +1,312 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A headless server that renders PNG images over HTTP (main -w). It needs
+ * neither Swing nor a display and runs with -Djava.awt.headless=true.
+ *
+ * GET /image?width=800&height=600&minRe=-2&minIm=-1.5&maxRe=1&maxIm=1.5 renders
+ * an area, which is extended to the aspect ratio of the image. Deep zooms are
+ * given by centerRe, centerIm, rangeRe and rangeIm instead.
+ *
+ * GET /tile/z/x/y.png renders tile (x, y) of level z of a pyramid of 256x256
+ * tiles, whose level 0 is a single tile from -2.5-2i to 1.5+2i (the layout of
+ * web map tiles).
+ *
+ * Both take nMax, innerColor and colorGradient (comma separated) as optional
+ * parameters. The images are rendered by a fixed number of threads. When they
+ * are all busy and the queue is full, further requests are rejected with 503.
+ * Concurrent requests for the same image share one rendering.
+ *
+ * Requests are parsed by two handler threads, which never wait for a client
+ * or a rendering. The images are sent by a separate pool, so slow clients
+ * only delay other responses and not the admission of new requests. When
+ * that pool is busy and its queue is full, the connection is closed.
+ */
+public class RenderServer {
+    public static final int TILE_SIZE = 256;
+    private static final int MAX_LEVEL = 60;
+    private static final int MAX_PIXELS = 4096 * 4096;
+    private static final int MAX_N_MAX = 1000000;
+    private static final int DEFAULT_N_MAX = 500;
+    private static final int DEFAULT_INNER_COLOR = 0x000000;
+    private static final int[] DEFAULT_COLOR_GRADIENT = { 0xff003c, 0xFFFFFF };
+    private static final int HANDLER_QUEUE_LENGTH = 256;
+    private static final int SENDER_THREADS = 4;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ExecutorService senders;
+    private final ExecutorService renderers;
+    private final Semaphore admissions; // Renderings that run or wait for a renderer
+    private final ConcurrentHashMap<String, CompletableFuture<byte[]>> renderings = new ConcurrentHashMap<>();
+    private final TileCache tileCache; // null if the pixels are not cached
+
+    /**
+     * @param port        port of the server
+     * @param threads     number of images that are rendered at the same time
+     * @param queueLength number of images that may wait for a free thread
+     * @param tileCache   cache of the iteration counts of all renderings (may be
+     *                    null)
+     */
+    public RenderServer(int port, int threads, int queueLength, TileCache tileCache) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // the handlers never wait for a rendering, the response is sent when it
+        // has finished. If they fall behind, the accepting thread parses the
+        // requests itself, which stops it from accepting more connections.
+        this.handlers = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(HANDLER_QUEUE_LENGTH), new ThreadPoolExecutor.CallerRunsPolicy());
+        // every admitted rendering has at most one response waiting in the queue
+        // unless requests for it have been coalesced
+        this.senders = new ThreadPoolExecutor(SENDER_THREADS, SENDER_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads + queueLength));
+        this.renderers = Executors.newFixedThreadPool(threads);
+        this.admissions = new Semaphore(threads + queueLength);
+        this.tileCache = tileCache;
+        this.server.setExecutor(this.handlers);
+        this.server.createContext("/image", (exchange) -> this.handle(exchange, false));
+        this.server.createContext("/tile/", (exchange) -> this.handle(exchange, true));
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.handlers.shutdown();
+        this.senders.shutdown();
+        this.renderers.shutdown();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, boolean isTile) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            this.sendText(exchange, 405, "Only GET is supported");
+            return;
+        }
+        Map<String, String> parameters;
+        Mandelbrot mand;
+        String key;
+        try {
+            parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+            String path = exchange.getRequestURI().getPath();
+            mand = isTile ? this.createTile(path, parameters) : this.createImage(parameters);
+            key = path + parameters;
+        } catch (IllegalArgumentException e) {
+            this.sendText(exchange, isNotFound(e) ? 404 : 400, e.getMessage());
+            return;
+        }
+
+        boolean[] isNew = { false };
+        CompletableFuture<byte[]> rendering = this.renderings.computeIfAbsent(key, (k) -> {
+            if (!this.admissions.tryAcquire())
+                return null;
+            isNew[0] = true;
+            return new CompletableFuture<>();
+        });
+        if (rendering == null) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            this.sendText(exchange, 503, "The server is busy");
+            return;
+        }
+        if (isNew[0]) {
+            this.renderers.execute(() -> {
+                try {
+                    ByteArrayOutputStream png = new ByteArrayOutputStream();
+                    mand.writePng(png);
+                    rendering.complete(png.toByteArray());
+                } catch (Throwable e) {
+                    rendering.completeExceptionally(e);
+                } finally {
+                    this.renderings.remove(key, rendering);
+                    this.admissions.release();
+                }
+            });
+        }
+        rendering.whenComplete((png, error) -> {
+            try {
+                this.senders.execute(() -> this.sendImage(exchange, isTile, png, error));
+            } catch (RejectedExecutionException e) {
+                // too many responses are waiting for slow clients
+                exchange.close();
+            }
+        });
+    }
+
+    private void sendImage(HttpExchange exchange, boolean isTile, byte[] png, Throwable error) {
+        try {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                this.sendText(exchange, 500, "The image could not be rendered: " + cause);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            if (isTile)
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+            exchange.sendResponseHeaders(200, png.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(png);
+            }
+        } catch (IOException e) {
+            // the client has closed the connection
+            exchange.close();
+        }
+    }
+
+    private Mandelbrot createImage(Map<String, String> parameters) {
+        int width = getInt(parameters, "width", 800, 1, MAX_PIXELS);
+        int height = getInt(parameters, "height", 600, 1, MAX_PIXELS);
+        if ((long) width * height > MAX_PIXELS)
+            throw new IllegalArgumentException("The image must not have more than " + MAX_PIXELS + " pixels");
+        int nMax = getInt(parameters, "nMax", DEFAULT_N_MAX, 1, MAX_N_MAX);
+        int innerColor = getColor(parameters, "innerColor", DEFAULT_INNER_COLOR);
+        int[] colorGradient = getColorGradient(parameters);
+        Mandelbrot mand;
+        try {
+            if (parameters.containsKey("centerRe"))
+                mand = new Mandelbrot(width, height, new BigDecimal(get(parameters, "centerRe")),
+                        new BigDecimal(get(parameters, "centerIm")), Double.parseDouble(get(parameters, "rangeRe")),
+                        Double.parseDouble(get(parameters, "rangeIm")), nMax, innerColor, colorGradient);
+            else
+                mand = new Mandelbrot(width, height, Double.parseDouble(get(parameters, "minRe")),
+                        Double.parseDouble(get(parameters, "minIm")), Double.parseDouble(get(parameters, "maxRe")),
+                        Double.parseDouble(get(parameters, "maxIm")), nMax, innerColor, colorGradient);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The area is invalid");
+        }
+        mand = mand.extendAreaToImageSize();
+        mand.tileCache = this.tileCache;
+        return mand;
+    }
+
+    private Mandelbrot createTile(String path, Map<String, String> parameters) {
+        String[] parts = path.substring("/tile/".length()).split("/");
+        if (parts.length != 3 || !parts[2].endsWith(".png"))
+            throw new IllegalArgumentException("Tiles are requested as /tile/z/x/y.png");
+        int z;
+        long x, y;
+        try {
+            z = Integer.parseInt(parts[0]);
+            x = Long.parseLong(parts[1]);
+            y = Long.parseLong(parts[2].substring(0, parts[2].length() - 4));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Tiles are requested as /tile/z/x/y.png");
+        }
+        if (z < 0 || z > MAX_LEVEL || x < 0 || y < 0 || x >= 1L << z || y >= 1L << z)
+            throw new IllegalArgumentException("There is no tile " + z + "/" + x + "/" + y);
+        // the sides of the tiles are powers of two, so their centers are exact
+        BigDecimal size = new BigDecimal(4.0D / (1L << z));
+        BigDecimal half = new BigDecimal(2.0D / (1L << z));
+        BigDecimal centerRe = new BigDecimal("-2.5").add(size.multiply(BigDecimal.valueOf(x))).add(half);
+        BigDecimal centerIm = new BigDecimal("2").subtract(size.multiply(BigDecimal.valueOf(y))).subtract(half);
+        Mandelbrot mand = new Mandelbrot(TILE_SIZE, TILE_SIZE, centerRe, centerIm, size.doubleValue(),
+                size.doubleValue(), getInt(parameters, "nMax", DEFAULT_N_MAX, 1, MAX_N_MAX),
+                getColor(parameters, "innerColor", DEFAULT_INNER_COLOR), getColorGradient(parameters));
+        mand.tileCache = this.tileCache;
+        return mand;
+    }
+
+    private static boolean isNotFound(IllegalArgumentException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("There is no tile");
+    }
+
+    /**
+     * Returns the parameters of a query sorted by name.
+     */
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> parameters = new TreeMap<>();
+        if (query == null || query.isEmpty())
+            return parameters;
+        try {
+            for (String parameter : query.split("&")) {
+                int i = parameter.indexOf('=');
+                if (i <= 0)
+                    throw new IllegalArgumentException("The parameter '" + parameter + "' has no value");
+                parameters.put(URLDecoder.decode(parameter.substring(0, i), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(i + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return parameters;
+    }
+
+    private static String get(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("The parameter '" + name + "' is missing");
+        return value;
+    }
+
+    private static int getInt(Map<String, String> parameters, String name, int defaultValue, int min, int max) {
+        if (!parameters.containsKey(name))
+            return defaultValue;
+        try {
+            int value = Integer.parseInt(parameters.get(name));
+            if (value >= min && value <= max)
+                return value;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("The parameter '" + name + "' must be between " + min + " and " + max);
+    }
+
+    private static int getColor(Map<String, String> parameters, String name, int defaultValue) {
+        if (!parameters.containsKey(name))
+            return defaultValue;
+        return parseColor(name, parameters.get(name));
+    }
+
+    private static int[] getColorGradient(Map<String, String> parameters) {
+        if (!parameters.containsKey("colorGradient"))
+            return DEFAULT_COLOR_GRADIENT;
+        return Arrays.stream(parameters.get("colorGradient").split(","))
+                .mapToInt((color) -> parseColor("colorGradient", color.trim())).toArray();
+    }
+
+    private static int parseColor(String name, String value) {
+        try {
+            int color = Integer.decode(value);
+            if (color >= 0 && color <= 0xFFFFFF)
+                return color;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("The parameter '" + name + "' must contain colors like 0xff003c");
+    }
+
+    private void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
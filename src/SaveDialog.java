@@ -12,6 +12,7 @@ import java.awt.event.WindowEvent;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -34,6 +35,11 @@ public class SaveDialog extends JDialog {
     JLabel lblHeight;
     JSpinner spnHeight;
 
+    JPanel pnlFormat;
+    JComboBox<String> cbxFormat;
+    JLabel lblCompression;
+    JSpinner spnCompression;
+
     JPanel pnlNavMain;
 
     JTextArea txaInfo;
@@ -45,6 +51,14 @@ public class SaveDialog extends JDialog {
     int w = 1000;
     int h;
 
+    // File formats that can be chosen, their extensions and how they are compressed
+    static final String[] FORMATS = { "PNG (verlustfrei)", "PPM (verlustfrei, unkomprimiert)", "JPEG",
+            "Iterationsdaten (zum Umfärben)" };
+    static final String[] EXTENSIONS = { "png", "ppm", "jpg", "mbi" };
+    int format = 0;
+    int pngCompressionLevel = 6; // 0 to 9
+    int jpegQuality = 75; // Percent
+
     Mandelbrot m;
     Mandelbrot mCalculation;
     JFrame frame;
@@ -135,6 +149,32 @@ public class SaveDialog extends JDialog {
 
         pnlMain.add(Box.createRigidArea(new Dimension(0, 5)));
 
+        pnlFormat = new JPanel();
+        GridLayout formatLayout = new GridLayout(2, 2);
+        formatLayout.setHgap(10);
+        pnlFormat.setLayout(formatLayout);
+
+        pnlFormat.add(new JLabel(" Format: "));
+
+        this.lblCompression = new JLabel();
+        pnlFormat.add(this.lblCompression);
+
+        this.cbxFormat = new JComboBox<>(FORMATS);
+        this.cbxFormat.setSelectedIndex(this.format);
+        this.cbxFormat.addActionListener((e) -> onFormatChange());
+        pnlFormat.add(this.cbxFormat);
+
+        this.spnCompression = new JSpinner();
+        this.spnCompression.addChangeListener((e) -> onCompressionChange());
+        ((JSpinner.DefaultEditor) this.spnCompression.getEditor()).getTextField().setColumns(8);
+        pnlFormat.add(this.spnCompression);
+
+        pnlMain.add(pnlFormat);
+
+        this.onFormatChange();
+
+        pnlMain.add(Box.createRigidArea(new Dimension(0, 5)));
+
         this.main = pnlMain;
         return this.main;
     }
@@ -227,43 +267,51 @@ public class SaveDialog extends JDialog {
     private void onNext() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Als Bild speichern");
-        FileNameExtensionFilter filter = new FileNameExtensionFilter(".jpg", "jpg", "picture");
+        // PNG and PPM images are written in bands and may be larger than the memory
+        String extension = EXTENSIONS[this.format];
+        FileNameExtensionFilter filter = extension.equals("jpg") ? new FileNameExtensionFilter(".jpg", "jpg", "jpeg")
+                : new FileNameExtensionFilter("." + extension, extension);
+        fileChooser.addChoosableFileFilter(filter);
         fileChooser.setFileFilter(filter);
-        fileChooser.setSelectedFile(new File("Mandelbrot-Bild.jpg"));
+        fileChooser.setSelectedFile(new File("Mandelbrot-Bild." + extension));
         int option = fileChooser.showDialog(this, "Als Bild speichern");
         if (option == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            this.mCalculation = new Mandelbrot((int) this.spnWidth.getValue(), (int) this.spnHeight.getValue(),
-                    m.getMinRe(), m.getMinIm(), m.getMaxRe(), m.getMaxIm(), m.getNMax(), m.getInnerColor(),
-                    m.getColorGradient());
+            if (!filter.accept(file) || file.isDirectory())
+                file = new File(file.getPath() + "." + extension);
+            final File imageFile = file;
+            this.mCalculation = m.resizeImage((int) this.spnWidth.getValue(), (int) this.spnHeight.getValue());
             m.abort();
             this.mCalculation.useBackgroundPattern = false;
+            this.mCalculation.pngCompressionLevel = this.pngCompressionLevel;
+            this.mCalculation.jpegQuality = this.jpegQuality / 100.0F;
 
             this.getContentPane().removeAll();
             this.add(this.getMain2(), BorderLayout.CENTER);
             this.add(this.getNavigationBar2(), BorderLayout.PAGE_END);
             this.revalidate();
             this.repaint();
-            try {
-                this.mCalculation.build((Integer p) -> {
-                    this.progressBar.setValue(p);
-                    this.lblProgress.setText("Fortschritt des Exportvorgangs: " + p + "%");
-                }, () -> {
-                    this.mCalculation.exportImage(file.getAbsolutePath());
-                    this.lblExportDone.setText("Bild erfolgreich gespeichert ✓");
-                    JButton btnOpen = new JButton("Öffnen 📂");
-                    btnOpen.addActionListener((e) -> open(file));
-                    btnOpen.setAlignmentX(JLabel.LEFT_ALIGNMENT);
-                    this.main.add(btnOpen);
-
-                    this.revalidate();
-                    this.repaint();
-                });
-            } catch (OutOfMemoryError e) {
-                new MessageDialog(this.frame, "Fehler ⚠",
-                        "Der Speicher, der Java zugewiesen wurde, reicht nicht aus. Bitte verkleinern Sie die Abmessungen des Bildes.");
+            this.mCalculation.buildAndExport(imageFile.getAbsolutePath(), (Integer p) -> {
+                this.progressBar.setValue(p);
+                this.lblProgress.setText("Fortschritt des Exportvorgangs: " + p + "%");
+            }, () -> {
+                this.lblExportDone.setText("Bild erfolgreich gespeichert ✓");
+                JButton btnOpen = new JButton("Öffnen 📂");
+                btnOpen.addActionListener((e) -> open(imageFile));
+                btnOpen.setAlignmentX(JLabel.LEFT_ALIGNMENT);
+                this.main.add(btnOpen);
+
+                this.revalidate();
+                this.repaint();
+            }, (error) -> {
+                if (error instanceof OutOfMemoryError)
+                    new MessageDialog(this.frame, "Fehler ⚠",
+                            "Der Speicher, der Java zugewiesen wurde, reicht nicht aus. Bitte verkleinern Sie die Abmessungen des Bildes.");
+                else
+                    new MessageDialog(this.frame, "Fehler ⚠",
+                            "Das Bild konnte nicht gespeichert werden. Bitte überprüfen Sie den Speicherort. ");
                 this.onBack();
-            }
+            });
 
         }
     }
@@ -292,6 +340,43 @@ public class SaveDialog extends JDialog {
         }
     }
 
+    private void onFormatChange() {
+        this.format = this.cbxFormat.getSelectedIndex();
+        switch (EXTENSIONS[this.format]) {
+            case "png":
+                this.lblCompression.setText(" Kompression (0–9): ");
+                this.spnCompression.setEnabled(true);
+                this.spnCompression.setValue(this.pngCompressionLevel);
+                break;
+            case "jpg":
+                this.lblCompression.setText(" Qualität (%): ");
+                this.spnCompression.setEnabled(true);
+                this.spnCompression.setValue(this.jpegQuality);
+                break;
+            default:
+                this.lblCompression.setText(" Kompression: ");
+                this.spnCompression.setEnabled(false);
+        }
+    }
+
+    private void onCompressionChange() {
+        int value = (int) this.spnCompression.getValue();
+        switch (EXTENSIONS[this.format]) {
+            case "png":
+                if (value < 0 || value > 9)
+                    this.spnCompression.setValue(Math.max(0, Math.min(9, value)));
+                else
+                    this.pngCompressionLevel = value;
+                break;
+            case "jpg":
+                if (value < 1 || value > 100)
+                    this.spnCompression.setValue(Math.max(1, Math.min(100, value)));
+                else
+                    this.jpegQuality = value;
+                break;
+        }
+    }
+
     boolean blockOnWidthChange = false;
     boolean blockOnHeightChange = false;
 
@@ -0,0 +1,255 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of iteration counts that is shared by several Mandelbrot objects, so
+ * that returning to an area that has been built before does not calculate it
+ * again. The complex plane is divided into a grid of pixels for every pixel
+ * spacing, and each grid into square tiles of TILE_SIZE x TILE_SIZE pixels.
+ * Counts of different nMax or kernel settings are kept in separate grids.
+ * Tiles are stored as int arrays in which pixels that are not known are -1.
+ * When the cache exceeds its memory budget the least recently used tiles are
+ * removed. Tiles can additionally be kept on disk by a TileStore.
+ */
+public class TileCache {
+    public static final int TILE_SIZE = 64;
+    // Pixels of a grid may be shifted by a fraction of the pixel spacing, which is
+    // distinguished in steps of 1 / PHASE_STEPS
+    private static final int PHASE_STEPS = 1024;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4L + 96L;
+
+    private final LinkedHashMap<Key, int[]> tiles = new LinkedHashMap<>(16, 0.75F, true);
+    private final long maxBytes;
+    private long bytes = 0;
+    private final TileStore store; // null if the tiles are only kept in memory
+
+    /**
+     * @param maxBytes memory budget of the cache in bytes
+     */
+    public TileCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param maxBytes memory budget of the cache in bytes
+     * @param store    disk store that tiles are loaded from if they are not in
+     *                 memory and that changed tiles are written to
+     */
+    public TileCache(long maxBytes, TileStore store) {
+        this.maxBytes = maxBytes;
+        this.store = store;
+    }
+
+    /**
+     * The position of the pixels of an area in the grid of its pixel spacing
+     */
+    static final class Grid {
+        private final long spacing;
+        private final int phaseX;
+        private final int phaseY;
+        private final int nMax;
+        private final int settings;
+        private final long originX; // Grid column of the left pixels of the area
+        private final long originY; // Grid row of the top pixels of the area
+
+        /**
+         * @param spacing  Distance of two pixels
+         * @param left     Real part of the left pixels
+         * @param top      Imaginary part of the top pixels
+         * @param nMax     Maximum number of iterations
+         * @param settings Bits of the settings of the kernel that the counts
+         *                 depend on (see Mandelbrot.getCacheGrid)
+         */
+        Grid(double spacing, double left, double top, int nMax, int settings) {
+            long x = Math.round(left / spacing * PHASE_STEPS);
+            long y = Math.round(-top / spacing * PHASE_STEPS);
+            this.spacing = Double.doubleToLongBits(spacing);
+            this.phaseX = (int) Math.floorMod(x, (long) PHASE_STEPS);
+            this.phaseY = (int) Math.floorMod(y, (long) PHASE_STEPS);
+            this.nMax = nMax;
+            this.settings = settings;
+            this.originX = Math.floorDiv(x, (long) PHASE_STEPS);
+            this.originY = Math.floorDiv(y, (long) PHASE_STEPS);
+        }
+
+        private Grid(Grid grid, long originX, long originY) {
+            this.spacing = grid.spacing;
+            this.phaseX = grid.phaseX;
+            this.phaseY = grid.phaseY;
+            this.nMax = grid.nMax;
+            this.settings = grid.settings;
+            this.originX = originX;
+            this.originY = originY;
+        }
+
+        /**
+         * Returns the grid of the area whose top left pixel is the given pixel of
+         * this area.
+         */
+        Grid shift(int columns, int rows) {
+            return columns == 0 && rows == 0 ? this : new Grid(this, this.originX + columns, this.originY + rows);
+        }
+    }
+
+    /**
+     * The address of a tile: its grid and its position in the grid (in tiles)
+     */
+    static final class Key {
+        final long spacing; // Bits of the pixel spacing
+        final int phaseX;
+        final int phaseY;
+        final int nMax;
+        final int settings;
+        final long tileX;
+        final long tileY;
+
+        Key(long spacing, int phaseX, int phaseY, int nMax, int settings, long tileX, long tileY) {
+            this.spacing = spacing;
+            this.phaseX = phaseX;
+            this.phaseY = phaseY;
+            this.nMax = nMax;
+            this.settings = settings;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        Key(Grid grid, long tileX, long tileY) {
+            this(grid.spacing, grid.phaseX, grid.phaseY, grid.nMax, grid.settings, tileX, tileY);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return this.tileX == key.tileX && this.tileY == key.tileY && this.spacing == key.spacing
+                    && this.phaseX == key.phaseX && this.phaseY == key.phaseY && this.nMax == key.nMax
+                    && this.settings == key.settings;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = this.spacing * 31 + this.phaseX;
+            h = h * 31 + this.phaseY;
+            h = h * 31 + this.nMax;
+            h = h * 31 + this.settings;
+            h = h * 31 + this.tileX;
+            h = h * 31 + this.tileY;
+            return Long.hashCode(h);
+        }
+    }
+
+    /**
+     * Returns the cached tile with the given key, loading it from the store if it
+     * is not in memory, or null if there is none.
+     */
+    private int[] get(Key key) {
+        int[] tile = this.tiles.get(key);
+        if (tile == null && this.store != null) {
+            tile = this.store.read(key);
+            if (tile != null) {
+                this.tiles.put(key, tile);
+                this.bytes += TILE_BYTES;
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Removes the least recently used tiles until the memory budget is kept.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Key, int[]>> it = this.tiles.entrySet().iterator();
+        while (this.bytes > this.maxBytes && it.hasNext()) {
+            it.next();
+            it.remove();
+            this.bytes -= TILE_BYTES;
+        }
+    }
+
+    /**
+     * This method copies the cached counts of an area of width x height pixels to
+     * all of its pixels that are -1 in data. It returns the number of copied
+     * pixels.
+     */
+    public synchronized int load(Grid grid, int[] data, int width, int height) {
+        int count = 0;
+        for (long ty = Math.floorDiv(grid.originY, TILE_SIZE); ty * TILE_SIZE < grid.originY + height; ty++) {
+            for (long tx = Math.floorDiv(grid.originX, TILE_SIZE); tx * TILE_SIZE < grid.originX + width; tx++) {
+                int[] tile = this.get(new Key(grid, tx, ty));
+                if (tile == null)
+                    continue;
+                int xBegin = (int) Math.max(0, tx * TILE_SIZE - grid.originX);
+                int xEnd = (int) Math.min(width, (tx + 1) * TILE_SIZE - grid.originX);
+                int yBegin = (int) Math.max(0, ty * TILE_SIZE - grid.originY);
+                int yEnd = (int) Math.min(height, (ty + 1) * TILE_SIZE - grid.originY);
+                for (int py = yBegin; py < yEnd; py++) {
+                    int t = (int) (py + grid.originY - ty * TILE_SIZE) * TILE_SIZE
+                            + (int) (grid.originX - tx * TILE_SIZE);
+                    for (int px = xBegin; px < xEnd; px++) {
+                        int i = py * width + px;
+                        if (data[i] < 0 && tile[t + px] >= 0) {
+                            data[i] = tile[t + px];
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        this.evict();
+        return count;
+    }
+
+    /**
+     * This method stores the known (not negative) counts of an area of width x
+     * height pixels. Tiles that are only partially covered by the area are merged
+     * with the cached ones. Tiles that have changed are also written to the store.
+     */
+    public synchronized void store(Grid grid, int[] data, int width, int height) {
+        for (long ty = Math.floorDiv(grid.originY, TILE_SIZE); ty * TILE_SIZE < grid.originY + height; ty++) {
+            for (long tx = Math.floorDiv(grid.originX, TILE_SIZE); tx * TILE_SIZE < grid.originX + width; tx++) {
+                Key key = new Key(grid, tx, ty);
+                int[] tile = this.get(key);
+                boolean hasChanged = false;
+                if (tile == null) {
+                    tile = new int[TILE_SIZE * TILE_SIZE];
+                    Arrays.fill(tile, -1);
+                    this.tiles.put(key, tile);
+                    this.bytes += TILE_BYTES;
+                }
+                int xBegin = (int) Math.max(0, tx * TILE_SIZE - grid.originX);
+                int xEnd = (int) Math.min(width, (tx + 1) * TILE_SIZE - grid.originX);
+                int yBegin = (int) Math.max(0, ty * TILE_SIZE - grid.originY);
+                int yEnd = (int) Math.min(height, (ty + 1) * TILE_SIZE - grid.originY);
+                for (int py = yBegin; py < yEnd; py++) {
+                    int t = (int) (py + grid.originY - ty * TILE_SIZE) * TILE_SIZE
+                            + (int) (grid.originX - tx * TILE_SIZE);
+                    for (int px = xBegin; px < xEnd; px++) {
+                        int n = data[py * width + px];
+                        if (n >= 0 && tile[t + px] != n) {
+                            tile[t + px] = n;
+                            hasChanged = true;
+                        }
+                    }
+                }
+                if (hasChanged && this.store != null)
+                    this.store.write(key, tile);
+            }
+        }
+        this.evict();
+    }
+
+    public synchronized void clear() {
+        this.tiles.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Returns the memory currently used by the cached tiles in bytes.
+     */
+    public synchronized long getSize() {
+        return this.bytes;
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * A directory that keeps the tiles of a TileCache across restarts, so that the
+ * program and the command line tool do not calculate areas again that have
+ * been built before.
+ *
+ * The tiles are appended to segment files that are mapped into memory. The
+ * index file is a log of records that map the key of a tile to its position
+ * in the segments; a tile that changes is appended again and its older copy
+ * becomes stale. When there are more stale than current tiles, the store is
+ * compacted into new segments when it is opened.
+ *
+ * The segments are not forced to the disk before the records are appended, so
+ * after a crash a record may point to a tile that has not been written
+ * completely. Every record therefore holds the CRC32 of its tile, and a tile
+ * that does not match it is treated as missing.
+ *
+ * Any number of threads may read at the same time. Only the first process that
+ * opens a directory may write to it, other processes open it read-only.
+ */
+public class TileStore implements Closeable {
+    // System property with the directory of the store of the program and the
+    // command line tool
+    public static final String DIRECTORY_PROPERTY = "mandelbrot.tileStore";
+
+    private static final int MAGIC = 0x4D544C53; // "MTLS"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 12; // magic, version, generation
+    private static final int RECORD_SIZE = 52; // key (40 bytes), segment, offset, checksum
+    private static final int TILE_BYTES = TileCache.TILE_SIZE * TileCache.TILE_SIZE * 4;
+    private static final int SEGMENT_SIZE = 1024 * TILE_BYTES; // 16 MB
+    // The store is only compacted if it has at least this many stale tiles
+    private static final int MIN_STALE_TILES = 256;
+
+    private static final String INDEX_FILE = "tiles.idx";
+    private static final String LOCK_FILE = "tiles.lock";
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    private final FileLock lock; // null if the store is read-only
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    private FileChannel indexChannel;
+    private final HashMap<TileCache.Key, Location> index = new HashMap<>();
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private int generation;
+    private long next; // Position of the next tile (segment << 32 | offset)
+
+    /**
+     * The position of a tile in the segments (segment << 32 | offset) and the
+     * CRC32 of its bytes
+     */
+    private static final class Location {
+        final long position;
+        final int checksum;
+
+        Location(long position, int checksum) {
+            this.position = position;
+            this.checksum = checksum;
+        }
+    }
+    private int staleTiles;
+
+    private TileStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = this.lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        this.lock = lock;
+        try {
+            this.readIndex();
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the store in a directory and creates it if it does not exist yet.
+     */
+    public static TileStore open(Path directory) throws IOException {
+        TileStore store = new TileStore(directory);
+        if (store.isWritable()) {
+            if (store.staleTiles >= MIN_STALE_TILES && store.staleTiles > store.index.size())
+                store.compact();
+            store.deleteUnusedSegments();
+        }
+        return store;
+    }
+
+    /**
+     * Opens the store in the directory given by the system property
+     * DIRECTORY_PROPERTY. It returns null if the property is not set or the store
+     * can not be opened.
+     */
+    public static TileStore openFromSystemProperty() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null || directory.isEmpty())
+            return null;
+        try {
+            return open(Paths.get(directory));
+        } catch (IOException e) {
+            System.out.println("The tile store '" + directory + "' could not be opened: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean isWritable() {
+        return this.lock != null;
+    }
+
+    /**
+     * Returns the number of tiles in the store.
+     */
+    public int getTileCount() {
+        this.rwLock.readLock().lock();
+        try {
+            return this.index.size();
+        } finally {
+            this.rwLock.readLock().unlock();
+        }
+    }
+
+    private Path getSegmentPath(int generation, int segment) {
+        return this.directory.resolve("tiles-" + generation + "-" + segment + ".dat");
+    }
+
+    private void readIndex() throws IOException {
+        Path path = this.directory.resolve(INDEX_FILE);
+        if (this.isWritable())
+            this.indexChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        else
+            this.indexChannel = FileChannel.open(path, StandardOpenOption.READ);
+
+        long size = this.indexChannel.size();
+        if (size < HEADER_SIZE) {
+            if (!this.isWritable())
+                throw new IOException("The index of the tile store is missing");
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(0).flip();
+            this.indexChannel.truncate(0);
+            this.indexChannel.write(header, 0);
+            size = HEADER_SIZE;
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        while (data.hasRemaining() && this.indexChannel.read(data, data.position()) >= 0)
+            ;
+        data.flip();
+        if (data.getInt() != MAGIC || data.getInt() != VERSION)
+            throw new IOException("The index of the tile store has an unknown format");
+        this.generation = data.getInt();
+
+        int numSegments = 0;
+        while (data.remaining() >= RECORD_SIZE) {
+            TileCache.Key key = new TileCache.Key(data.getLong(), data.getInt(), data.getInt(), data.getInt(),
+                    data.getInt(), data.getLong(), data.getLong());
+            int segment = data.getInt();
+            int offset = data.getInt();
+            int checksum = data.getInt();
+            if (segment < 0 || offset < 0 || offset > SEGMENT_SIZE - TILE_BYTES)
+                throw new IOException("The index of the tile store is corrupt");
+            long position = ((long) segment << 32) | offset;
+            if (this.index.put(key, new Location(position, checksum)) != null)
+                this.staleTiles++;
+            this.next = Math.max(this.next, position + TILE_BYTES);
+            numSegments = Math.max(numSegments, segment + 1);
+        }
+        // a record that has only been written partially is dropped
+        if (this.isWritable() && data.position() < size)
+            this.indexChannel.truncate(data.position());
+
+        for (int i = 0; i < numSegments; i++)
+            this.segments.add(this.mapSegment(this.generation, i));
+    }
+
+    private MappedByteBuffer mapSegment(int generation, int segment) throws IOException {
+        Path path = this.getSegmentPath(generation, segment);
+        if (!this.isWritable()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), SEGMENT_SIZE));
+            }
+        }
+        // the mapping stays valid after the channel has been closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    /**
+     * Returns a copy of the tile with the given key or null if it is not in the
+     * store or has not been written completely.
+     */
+    int[] read(TileCache.Key key) {
+        this.rwLock.readLock().lock();
+        try {
+            Location location = this.index.get(key);
+            return location == null ? null : readAt(this.segments, location);
+        } finally {
+            this.rwLock.readLock().unlock();
+        }
+    }
+
+    private static int[] readAt(ArrayList<MappedByteBuffer> segments, Location location) {
+        ByteBuffer buffer = segments.get((int) (location.position >>> 32)).duplicate();
+        int offset = (int) location.position;
+        if (offset + TILE_BYTES > buffer.limit())
+            return null;
+        if (checksum(buffer, offset) != location.checksum)
+            return null;
+        buffer.position(offset);
+        int[] tile = new int[TileCache.TILE_SIZE * TileCache.TILE_SIZE];
+        buffer.asIntBuffer().get(tile);
+        return tile;
+    }
+
+    /**
+     * Appends a tile to the store. The call is ignored if the store is read-only
+     * or can not be written.
+     */
+    void write(TileCache.Key key, int[] tile) {
+        if (!this.isWritable())
+            return;
+        this.rwLock.writeLock().lock();
+        try {
+            Location location = this.append(key, tile, this.indexChannel, this.indexChannel.size());
+            if (this.index.put(key, location) != null)
+                this.staleTiles++;
+        } catch (IOException e) {
+            System.out.println("The tile could not be written to the tile store: " + e.getMessage());
+        } finally {
+            this.rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes a tile at the next position of the segments and its record at
+     * indexPosition of an index. It returns the location of the tile.
+     */
+    private Location append(TileCache.Key key, int[] tile, FileChannel index, long indexPosition)
+            throws IOException {
+        int segment = (int) (this.next >>> 32);
+        int offset = (int) this.next;
+        if (offset + TILE_BYTES > SEGMENT_SIZE || segment >= this.segments.size()) {
+            if (segment < this.segments.size())
+                segment++;
+            offset = 0;
+            this.segments.add(this.mapSegment(this.generation, segment));
+        }
+        ByteBuffer buffer = this.segments.get(segment).duplicate();
+        buffer.position(offset);
+        buffer.asIntBuffer().put(tile);
+        int checksum = checksum(buffer, offset);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(key.spacing).putInt(key.phaseX).putInt(key.phaseY).putInt(key.nMax).putInt(key.settings)
+                .putLong(key.tileX).putLong(key.tileY).putInt(segment).putInt(offset).putInt(checksum).flip();
+        while (record.hasRemaining())
+            indexPosition += index.write(record, indexPosition);
+
+        long position = ((long) segment << 32) | offset;
+        this.next = position + TILE_BYTES;
+        return new Location(position, checksum);
+    }
+
+    /**
+     * Returns the CRC32 of the tile at the given offset of a segment.
+     */
+    private static int checksum(ByteBuffer segment, int offset) {
+        ByteBuffer bytes = segment.duplicate();
+        bytes.limit(offset + TILE_BYTES).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * This method copies all current tiles into the segments of a new generation
+     * and replaces the index, which removes the stale tiles from the disk.
+     */
+    public void compact() throws IOException {
+        if (!this.isWritable())
+            return;
+        this.rwLock.writeLock().lock();
+        try {
+            Map<TileCache.Key, Location> oldIndex = new HashMap<>(this.index);
+            ArrayList<MappedByteBuffer> oldSegments = new ArrayList<>(this.segments);
+
+            Path tmp = this.directory.resolve(INDEX_FILE + ".tmp");
+            this.generation++;
+            this.segments.clear();
+            this.index.clear();
+            this.next = 0;
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(this.generation).flip();
+                channel.write(header, 0);
+                long indexPosition = HEADER_SIZE;
+                for (Map.Entry<TileCache.Key, Location> entry : oldIndex.entrySet()) {
+                    int[] tile = readAt(oldSegments, entry.getValue());
+                    if (tile == null)
+                        continue;
+                    this.index.put(entry.getKey(), this.append(entry.getKey(), tile, channel, indexPosition));
+                    indexPosition += RECORD_SIZE;
+                }
+                for (MappedByteBuffer segment : this.segments)
+                    segment.force();
+                channel.force(true);
+            }
+            this.indexChannel.close();
+            Files.move(tmp, this.directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.indexChannel = FileChannel.open(this.directory.resolve(INDEX_FILE), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.staleTiles = 0;
+        } finally {
+            this.rwLock.writeLock().unlock();
+        }
+        this.deleteUnusedSegments();
+    }
+
+    /**
+     * Deletes the segment files of older generations. Files that are still mapped
+     * by another process may not be deletable on some systems; they are deleted
+     * the next time.
+     */
+    private void deleteUnusedSegments() {
+        String current = "tiles-" + this.generation + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "tiles-*.dat")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().startsWith(current)) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // still in use
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the files are deleted the next time
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.rwLock.writeLock().lock();
+        try {
+            if (this.isWritable())
+                for (MappedByteBuffer segment : this.segments)
+                    segment.force();
+            if (this.indexChannel != null)
+                this.indexChannel.close();
+            if (this.lock != null)
+                this.lock.release();
+            this.lockChannel.close();
+        } finally {
+            this.rwLock.writeLock().unlock();
+        }
+    }
+}